@@ -18,7 +18,9 @@ import org.ml4j.Matrix;
 
 /**
  * JBlasRowMajorMatrixFactory which creates optimised versions of JBlasRowMajorMatrix
- * (  JBlasRowMajorMatrixOptimised instances).s
+ * (  JBlasRowMajorMatrixOptimised instances), whose mmul methods are computed by a single
+ * sgemm directly into the target, and which provide the in-place mmulInto, mmulAccumulate, 
+ * mmulTransposeLeft, mmulTransposeRight and gemm variants.
  * 
  * @author Michael Lavelle
  */
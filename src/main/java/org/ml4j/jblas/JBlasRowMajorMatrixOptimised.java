@@ -33,6 +33,11 @@ public class JBlasRowMajorMatrixOptimised extends JBlasRowMajorMatrix {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * The BLAS implementation, looked up once rather than on each call.
+	 */
+	private static final BLAS BLAS_INSTANCE = BLAS.getInstance();
+
 	public JBlasRowMajorMatrixOptimised(JBlasRowMajorMatrixFactory jblasRowMajorMatrixFactory,
 			FloatMatrixFactory floatMatrixFactory, FloatArrayFactory floatArrayFactory, FloatMatrix matrix,
 			boolean immutable) {
@@ -44,27 +49,118 @@ public class JBlasRowMajorMatrixOptimised extends JBlasRowMajorMatrix {
 	 */
 	@Override
 	public Matrix mmul(Matrix other) {
-		float alpha = 1f;
-		float beta =1f;
-		int resultOffset = 0;
 		Matrix target = jblasRowMajorMatrixFactory.createMatrix(getRows(), other.getColumns());
-		Matrix result = gemm(alpha, this, other, beta, target, resultOffset);
-		return result;
+		return mmulInto(other, target);
 	}
 	
 	/**
-	 * Optimised mmul method which uses com.github.fommil.netlib.BLAS sgemm.
+	 * Optimised mmul method which uses com.github.fommil.netlib.BLAS sgemm, overwriting the target.
 	 */
 	@Override
 	public Matrix mmul(Matrix other, Matrix target) {
-		float alpha = 1f;
-		float beta =1f;
-		int resultOffset = 0;
-		Matrix result = gemm(alpha, other, this, beta, target, resultOffset);
-		return result;
+		return mmulInto(other, target);
 	}
 
+	/**
+	 * Computes target <- this * other, overwriting the target without allocating.
+	 * 
+	 * @param other The right operand.
+	 * @param target The target, which must not share its data with either operand.
+	 * @return The target.
+	 */
+	public Matrix mmulInto(Matrix other, Matrix target) {
+		return gemm(false, false, 1f, this, other, 0f, target);
+	}
+	
+	/**
+	 * Computes target <- target + this * other without allocating.
+	 * 
+	 * @param other The right operand.
+	 * @param target The target, which must not share its data with either operand.
+	 * @return The target.
+	 */
+	public Matrix mmulAccumulate(Matrix other, Matrix target) {
+		return gemm(false, false, 1f, this, other, 1f, target);
+	}
+	
+	/**
+	 * Computes target <- transpose(this) * other, overwriting the target without allocating or transposing.
+	 * 
+	 * @param other The right operand.
+	 * @param target The target, which must not share its data with either operand.
+	 * @return The target.
+	 */
+	public Matrix mmulTransposeLeft(Matrix other, Matrix target) {
+		return gemm(true, false, 1f, this, other, 0f, target);
+	}
+	
+	/**
+	 * Computes target <- this * transpose(other), overwriting the target without allocating or transposing.
+	 * 
+	 * @param other The right operand.
+	 * @param target The target, which must not share its data with either operand.
+	 * @return The target.
+	 */
+	public Matrix mmulTransposeRight(Matrix other, Matrix target) {
+		return gemm(false, true, 1f, this, other, 0f, target);
+	}
 	
+	/**
+	 * Computes target <- alpha * this * other + beta * target without allocating - when beta is 0 the
+	 * existing values of the target are ignored.
+	 * 
+	 * @param alpha The scale of the product.
+	 * @param other The right operand.
+	 * @param beta The scale of the existing target values.
+	 * @param target The target, which must not share its data with either operand.
+	 * @return The target.
+	 */
+	public Matrix gemm(float alpha, Matrix other, float beta, Matrix target) {
+		return gemm(false, false, alpha, this, other, beta, target);
+	}
+
+	/**
+	 * Compute c <- alpha * op(a)*op(b) + beta * c (general matrix matrix
+	 * multiplication) where a, b and c are row-major matrices, and op(x) 
+	 * is x or its transpose
+	 * 
+	 * @param transposeA Whether op(a) is the transpose of a
+	 * @param transposeB Whether op(b) is the transpose of b
+	 * @param alpha
+	 * @param a
+	 * @param b
+	 * @param beta
+	 * @param c The target, which must not share its data with a or b
+	 * @return c
+	 */
+	public static Matrix gemm(boolean transposeA, boolean transposeB, float alpha, Matrix a, Matrix b, float beta,
+			Matrix c) {
+		int m = transposeA ? a.getColumns() : a.getRows();
+		int k = transposeA ? a.getRows() : a.getColumns();
+		int otherK = transposeB ? b.getColumns() : b.getRows();
+		int n = transposeB ? b.getRows() : b.getColumns();
+		if (k != otherK) {
+			throw new IllegalArgumentException("Operand dimensions do not agree: " + m + "x" + k + " and " + otherK
+					+ "x" + n);
+		}
+		if (c.getRows() != m || c.getColumns() != n) {
+			throw new IllegalArgumentException("Target is " + c.getRows() + "x" + c.getColumns() + " but product is "
+					+ m + "x" + n);
+		}
+		float[] aData = a.getRowByRowArray();
+		float[] bData = b.getRowByRowArray();
+		float[] cData = c.getRowByRowArray();
+		// Distinct matrices may wrap the same array, so compare the arrays rather than the matrices
+		if (cData == aData || cData == bData) {
+			throw new IllegalArgumentException("Target cannot share its data with an operand");
+		}
+		if (m == 0 || n == 0) {
+			return c;
+		}
+		gemm(transposeA, transposeB, m, n, k, alpha, aData, 0, Math.max(1, a.getColumns()), bData, 0,
+				Math.max(1, b.getColumns()), beta, cData, 0, n);
+		return c;
+	}
 
 	/**
 	 * Compute c <- alpha * a*b + beta * c (general matrix matrix
@@ -81,7 +177,7 @@ public class JBlasRowMajorMatrixOptimised extends JBlasRowMajorMatrix {
 	 */
 	public static Matrix gemm(float alpha, Matrix a,
 			Matrix b, float beta, Matrix c, int cOffset) {
-		BLAS.getInstance().sgemm("N", "N", c.getColumns(), c.getRows(), b.getRows(), alpha, b.getRowByRowArray(), 0,
+		BLAS_INSTANCE.sgemm("N", "N", c.getColumns(), c.getRows(), b.getRows(), alpha, b.getRowByRowArray(), 0,
 				b.getColumns(), a.getRowByRowArray(), 0, a.getColumns(), beta, c.getRowByRowArray(), cOffset, c.getColumns());
 		return c;
 	}
@@ -100,11 +196,65 @@ public class JBlasRowMajorMatrixOptimised extends JBlasRowMajorMatrix {
 	 */
 	public static RowMajorFloatArrayMatrix gemm(float alpha, RowMajorFloatArrayMatrix a,
 			RowMajorFloatArrayMatrix b, float beta, RowMajorFloatArrayMatrix c) {
-		BLAS.getInstance().sgemm("N", "N", c.getColumns(), c.getRows(), b.getRows(), alpha, b.getRowByRowArray(), b.getOffset(),
+		BLAS_INSTANCE.sgemm("N", "N", c.getColumns(), c.getRows(), b.getRows(), alpha, b.getRowByRowArray(), b.getOffset(),
 				b.getColumns(), a.getRowByRowArray(), a.getOffset(), a.getColumns(), beta, c.getRowByRowArray(), c.getOffset(), c.getColumns());
 		return c;
 	}
 	
+	/**
+	 * Compute c <- alpha * a*b + beta * c (general matrix matrix
+	 * multiplication) where a, b and c are row-major sub-matrices of 
+	 * float arrays, with the specified offsets and leading dimensions
+	 * 
+	 * @param m The number of rows of a and c
+	 * @param n The number of columns of b and c
+	 * @param k The number of columns of a and rows of b
+	 * @param alpha
+	 * @param a
+	 * @param aOffset
+	 * @param lda The distance between the start of consecutive rows of a
+	 * @param b
+	 * @param bOffset
+	 * @param ldb The distance between the start of consecutive rows of b
+	 * @param beta
+	 * @param c
+	 * @param cOffset
+	 * @param ldc The distance between the start of consecutive rows of c
+	 */
+	public static void gemm(int m, int n, int k, float alpha, float[] a, int aOffset, int lda, float[] b,
+			int bOffset, int ldb, float beta, float[] c, int cOffset, int ldc) {
+		gemm(false, false, m, n, k, alpha, a, aOffset, lda, b, bOffset, ldb, beta, c, cOffset, ldc);
+	}
+	
+	/**
+	 * Compute c <- alpha * op(a)*op(b) + beta * c (general matrix matrix
+	 * multiplication) where a, b and c are row-major sub-matrices of 
+	 * float arrays, with the specified offsets and leading dimensions, and 
+	 * op(x) is x or its transpose
+	 * 
+	 * @param transposeA Whether op(a) is the transpose of a
+	 * @param transposeB Whether op(b) is the transpose of b
+	 * @param m The number of rows of op(a) and c
+	 * @param n The number of columns of op(b) and c
+	 * @param k The number of columns of op(a) and rows of op(b)
+	 * @param alpha
+	 * @param a
+	 * @param aOffset
+	 * @param lda The distance between the start of consecutive rows of a
+	 * @param b
+	 * @param bOffset
+	 * @param ldb The distance between the start of consecutive rows of b
+	 * @param beta
+	 * @param c
+	 * @param cOffset
+	 * @param ldc The distance between the start of consecutive rows of c
+	 */
+	public static void gemm(boolean transposeA, boolean transposeB, int m, int n, int k, float alpha, float[] a,
+			int aOffset, int lda, float[] b, int bOffset, int ldb, float beta, float[] c, int cOffset, int ldc) {
+		BLAS_INSTANCE.sgemm(transposeB ? "T" : "N", transposeA ? "T" : "N", n, m, k, alpha, b, bOffset, ldb, a,
+				aOffset, lda, beta, c, cOffset, ldc);
+	}
+	
 	/**
 	 * Compute c <- alpha * a*b + beta * c (general matrix matrix
 	 * multiplication) where a, b and c are column-major FloatMatrix instances
@@ -119,7 +269,7 @@ public class JBlasRowMajorMatrixOptimised extends JBlasRowMajorMatrix {
 	 */
 	public static FloatMatrix gemm(float alpha, FloatMatrix a,
 			FloatMatrix b, float beta, FloatMatrix c, int cOffset) {
-		BLAS.getInstance().sgemm("N", "N", c.rows, c.columns, a.columns, alpha, a.data, 0,
+		BLAS_INSTANCE.sgemm("N", "N", c.rows, c.columns, a.columns, alpha, a.data, 0,
 				a.rows, b.data, 0, b.rows, beta, c.data, cOffset, c.rows);
 		return c;
 	}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Constants and bulk transfer helpers for the binary axon weights checkpoint format.
+ * 
+ * A checkpoint is a file header followed by any number of layer records, all little-endian:
+ * 
+ * <pre>
+ * file header:  int FILE_MAGIC, int FORMAT_VERSION
+ * layer record: int RECORD_MAGIC, short name length, UTF-8 name,
+ *               int shape length, int[] shape,
+ *               int weights rows, int weights columns,
+ *               int left to right bias length (-1 if none), int right to left bias length (-1 if none),
+ *               byte[32] content digest,
+ *               float[] weights, float[] left to right biases, float[] right to left biases
+ * </pre>
+ * 
+ * Records may be appended to an existing checkpoint - when a layer has several records, the last one is current.
+ * The content digest is the SHA-256 digest of the array lengths and float data of the record, and allows a writer 
+ * appending to a checkpoint to skip layers which have not changed.  Only a record which extends beyond the end of 
+ * the file is treated as a partially written trailing record - any other malformed record is corrupt.
+ * 
+ * The shape of convolutional axons is recorded as the left neurons width, height and depth, the right neurons 
+ * width, height and depth, the filter width and height, stride width and height, padding width and height, and 
+ * dilation width and height.
+ * 
+ * @author Michael Lavelle
+ */
+public final class AxonWeightsCheckpointFormat {
+
+	public static final int FILE_MAGIC = 0x4D4C344A;
+	public static final int RECORD_MAGIC = 0x41584F4E;
+	public static final int FORMAT_VERSION = 1;
+	public static final int FILE_HEADER_BYTES = 8;
+	public static final int CONTENT_DIGEST_BYTES = 32;
+
+	/**
+	 * The size of the direct buffer used to transfer float data to and from channels.
+	 */
+	static final int TRANSFER_BUFFER_BYTES = 1024 * 1024;
+
+	private AxonWeightsCheckpointFormat() {
+	}
+
+	/**
+	 * @param config The config of convolutional axons.
+	 * @return The shape recorded for undilated axons.
+	 */
+	public static int[] getShape(Axons3DConfig config) {
+		return getShape(config, new LowMemoryConvolutionOptions());
+	}
+
+	/**
+	 * @param config The config of convolutional axons.
+	 * @param options The low-memory convolution options of the axons, providing the dilation.
+	 * @return The shape recorded for the axons.
+	 */
+	public static int[] getShape(Axons3DConfig config, LowMemoryConvolutionOptions options) {
+		return new int[] { config.getLeftNeurons().getWidth(), config.getLeftNeurons().getHeight(),
+				config.getLeftNeurons().getDepth(), config.getRightNeurons().getWidth(),
+				config.getRightNeurons().getHeight(), config.getRightNeurons().getDepth(), config.getFilterWidth(),
+				config.getFilterHeight(), config.getStrideWidth(), config.getStrideHeight(),
+				config.getPaddingWidth(), config.getPaddingHeight(), options.getDilationWidth(),
+				options.getDilationHeight() };
+	}
+
+	static int[] getShape(LowMemorySamePaddingConvolutionalAxonsImpl axons) {
+		return getShape(axons.getConfig(), axons.getOptions());
+	}
+
+	/**
+	 * @return The weights, left to right biases and right to left biases arrays of the axon weights - the bias 
+	 *         arrays are null if the weights have no such biases.
+	 */
+	static float[][] getArrays(AxonWeights axonWeights) {
+		return new float[][] { axonWeights.getConnectionWeights().getMatrix().getRowByRowArray(),
+				axonWeights.getLeftToRightBiases() == null ? null
+						: axonWeights.getLeftToRightBiases().getVector().getRowByRowArray(),
+				axonWeights.getRightToLeftBiases() == null ? null
+						: axonWeights.getRightToLeftBiases().getVector().getRowByRowArray() };
+	}
+
+	/**
+	 * @return The SHA-256 digest of the lengths and little-endian float data of the arrays, computed through the 
+	 *         transfer buffer.
+	 */
+	static byte[] getContentDigest(float[][] arrays, ByteBuffer transferBuffer) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		for (float[] array : arrays) {
+			transferBuffer.clear();
+			transferBuffer.putInt(array == null ? -1 : array.length);
+			transferBuffer.flip();
+			digest.update(transferBuffer);
+			if (array != null) {
+				int updated = 0;
+				while (updated < array.length) {
+					int count = Math.min(array.length - updated, transferBuffer.capacity() / Float.BYTES);
+					transferBuffer.clear();
+					transferBuffer.asFloatBuffer().put(array, updated, count);
+					transferBuffer.limit(count * Float.BYTES);
+					digest.update(transferBuffer);
+					updated += count;
+				}
+			}
+		}
+		return digest.digest();
+	}
+
+	static ByteBuffer createTransferBuffer() {
+		return ByteBuffer.allocateDirect(TRANSFER_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static void writeFloats(WritableByteChannel channel, ByteBuffer transferBuffer, float[] data, int offset,
+			int length) throws IOException {
+		int written = 0;
+		while (written < length) {
+			int count = Math.min(length - written, transferBuffer.capacity() / Float.BYTES);
+			transferBuffer.clear();
+			FloatBuffer floatBuffer = transferBuffer.asFloatBuffer();
+			floatBuffer.put(data, offset + written, count);
+			transferBuffer.limit(count * Float.BYTES);
+			writeFully(channel, transferBuffer);
+			written += count;
+		}
+	}
+
+	static void readFloats(ReadableByteChannel channel, ByteBuffer transferBuffer, float[] data, int offset,
+			int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = Math.min(length - read, transferBuffer.capacity() / Float.BYTES);
+			transferBuffer.clear();
+			transferBuffer.limit(count * Float.BYTES);
+			readFully(channel, transferBuffer);
+			transferBuffer.flip();
+			transferBuffer.asFloatBuffer().get(data, offset + read, count);
+			read += count;
+		}
+	}
+
+	static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Unexpected end of checkpoint");
+			}
+		}
+	}
+}
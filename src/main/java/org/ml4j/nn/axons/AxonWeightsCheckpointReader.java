@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads axon weights from a binary checkpoint, streaming the float data of the current record of a layer from 
+ * the file directly into the backing arrays of existing axon weights.
+ * 
+ * @author Michael Lavelle
+ */
+public class AxonWeightsCheckpointReader implements Closeable {
+
+	private FileChannel channel;
+	private ByteBuffer transferBuffer;
+	private Map<String, AxonWeightsCheckpointRecord> records;
+
+	/**
+	 * Opens a checkpoint file for reading.
+	 * 
+	 * @param path The checkpoint file.
+	 * @throws IOException If the file cannot be opened, or is not a supported checkpoint.
+	 */
+	public AxonWeightsCheckpointReader(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.records = new LinkedHashMap<>();
+		try {
+			AxonWeightsCheckpointRecord.index(channel, records);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		this.transferBuffer = AxonWeightsCheckpointFormat.createTransferBuffer();
+	}
+
+	/**
+	 * @return The names of the layers in the checkpoint.
+	 */
+	public Set<String> getLayerNames() {
+		return Collections.unmodifiableSet(records.keySet());
+	}
+
+	/**
+	 * @param name The name of the layer.
+	 * @return The shape of the current record of the layer.
+	 */
+	public int[] getShape(String name) {
+		return getRecord(name).getShape().clone();
+	}
+
+	/**
+	 * Restores the weights and biases of a layer into the specified axon weights, which must have the dimensions 
+	 * of the weights and biases of the layer.
+	 * 
+	 * @param name The name of the layer.
+	 * @param axonWeights The axon weights to restore into.
+	 * @throws IOException If the record cannot be read, or the restored data does not match the content digest of 
+	 *         the record - for example if the record was being overwritten when the writer was interrupted.
+	 */
+	public void restore(String name, AxonWeights axonWeights) throws IOException {
+		AxonWeightsCheckpointRecord record = getRecord(name);
+		float[][] arrays = AxonWeightsCheckpointFormat.getArrays(axonWeights);
+		int rows = axonWeights.getConnectionWeights().getMatrix().getRows();
+		int columns = axonWeights.getConnectionWeights().getMatrix().getColumns();
+		if (rows != record.getWeightsRows() || columns != record.getWeightsColumns()
+				|| arrays[0].length != rows * columns) {
+			throw new IllegalArgumentException("Weights of layer " + name + " are " + record.getWeightsRows() + "x"
+					+ record.getWeightsColumns() + " but target weights are " + rows + "x" + columns);
+		}
+		validateBiasLength(name, record.getLeftToRightBiasLength(), arrays[1]);
+		validateBiasLength(name, record.getRightToLeftBiasLength(), arrays[2]);
+
+		channel.position(record.getDataPosition());
+		for (float[] array : arrays) {
+			if (array != null) {
+				AxonWeightsCheckpointFormat.readFloats(channel, transferBuffer, array, 0, array.length);
+			}
+		}
+		if (axonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl) {
+			((LowMemorySamePaddingConvolutionalAxonWeightsImpl) axonWeights).weightsChanged();
+		}
+		if (!Arrays.equals(record.getContentDigest(),
+				AxonWeightsCheckpointFormat.getContentDigest(arrays, transferBuffer))) {
+			throw new IOException("Content of layer " + name + " does not match its checkpoint record digest");
+		}
+	}
+
+	/**
+	 * Restores the weights and biases of a layer into the specified convolutional axons, which must have the 
+	 * shape of the layer.
+	 * 
+	 * @param name The name of the layer.
+	 * @param axons The axons to restore into.
+	 * @throws IOException If the record cannot be read.
+	 */
+	public void restore(String name, LowMemorySamePaddingConvolutionalAxonsImpl axons) throws IOException {
+		int[] shape = AxonWeightsCheckpointFormat.getShape(axons);
+		if (!Arrays.equals(shape, getRecord(name).getShape())) {
+			throw new IllegalArgumentException("Shape of layer " + name + " is "
+					+ Arrays.toString(getRecord(name).getShape()) + " but axons shape is " + Arrays.toString(shape));
+		}
+		restore(name, axons.getAxonWeights());
+	}
+
+	private AxonWeightsCheckpointRecord getRecord(String name) {
+		AxonWeightsCheckpointRecord record = records.get(name);
+		if (record == null) {
+			throw new IllegalArgumentException("No layer named " + name + " in checkpoint");
+		}
+		return record;
+	}
+
+	private void validateBiasLength(String name, int recordedLength, float[] biases) {
+		int length = biases == null ? -1 : biases.length;
+		if (length != recordedLength) {
+			throw new IllegalArgumentException("Biases of layer " + name + " have length " + recordedLength
+					+ " but target biases have length " + length);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The header of a layer record within a binary axon weights checkpoint.
+ * 
+ * @author Michael Lavelle
+ */
+class AxonWeightsCheckpointRecord {
+
+	/**
+	 * The maximum number of dimensions of a recorded shape - a larger shape length can only be read from a corrupt 
+	 * record.
+	 */
+	static final int MAX_SHAPE_LENGTH = 64;
+
+	private String name;
+	private int[] shape;
+	private int weightsRows;
+	private int weightsColumns;
+	private int leftToRightBiasLength;
+	private int rightToLeftBiasLength;
+	private byte[] contentDigest;
+	private long recordPosition;
+	private long dataPosition;
+
+	AxonWeightsCheckpointRecord(String name, int[] shape, int weightsRows, int weightsColumns,
+			int leftToRightBiasLength, int rightToLeftBiasLength, byte[] contentDigest, long recordPosition,
+			long dataPosition) {
+		this.name = name;
+		this.shape = shape;
+		this.weightsRows = weightsRows;
+		this.weightsColumns = weightsColumns;
+		this.leftToRightBiasLength = leftToRightBiasLength;
+		this.rightToLeftBiasLength = rightToLeftBiasLength;
+		this.contentDigest = contentDigest;
+		this.recordPosition = recordPosition;
+		this.dataPosition = dataPosition;
+	}
+
+	/**
+	 * Creates the header of a record to be written.
+	 */
+	static ByteBuffer createHeader(String name, int[] shape, int weightsRows, int weightsColumns,
+			int leftToRightBiasLength, int rightToLeftBiasLength, byte[] contentDigest) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Layer name is too long");
+		}
+		if (shape.length > MAX_SHAPE_LENGTH) {
+			throw new IllegalArgumentException("Layer shape has more than " + MAX_SHAPE_LENGTH + " dimensions");
+		}
+		ByteBuffer header = ByteBuffer.allocate(4 + 2 + nameBytes.length + 4 + shape.length * 4 + 4 * 4
+				+ AxonWeightsCheckpointFormat.CONTENT_DIGEST_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(AxonWeightsCheckpointFormat.RECORD_MAGIC);
+		header.putShort((short) nameBytes.length);
+		header.put(nameBytes);
+		header.putInt(shape.length);
+		for (int dimension : shape) {
+			header.putInt(dimension);
+		}
+		header.putInt(weightsRows);
+		header.putInt(weightsColumns);
+		header.putInt(leftToRightBiasLength);
+		header.putInt(rightToLeftBiasLength);
+		header.put(contentDigest);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Validates the file header of a checkpoint, and indexes the current record of each layer.
+	 * 
+	 * A record which extends beyond the end of the checkpoint is a partially written trailing record, and is 
+	 * excluded - any other malformed record is corrupt, and fails the index.
+	 * 
+	 * @param channel The checkpoint channel.
+	 * @param records Populated with the current record of each layer.
+	 * @return The length of the checkpoint up to the end of the last complete record.
+	 * @throws IOException If the checkpoint cannot be read, is not a supported checkpoint, or contains a corrupt 
+	 *         record.
+	 */
+	static long index(FileChannel channel, Map<String, AxonWeightsCheckpointRecord> records) throws IOException {
+		ByteBuffer fileHeader = ByteBuffer.allocate(AxonWeightsCheckpointFormat.FILE_HEADER_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		channel.position(0);
+		AxonWeightsCheckpointFormat.readFully(channel, fileHeader);
+		fileHeader.flip();
+		if (fileHeader.getInt() != AxonWeightsCheckpointFormat.FILE_MAGIC) {
+			throw new IOException("Not an axon weights checkpoint");
+		}
+		int version = fileHeader.getInt();
+		if (version != AxonWeightsCheckpointFormat.FORMAT_VERSION) {
+			throw new IOException("Unsupported axon weights checkpoint version:" + version);
+		}
+
+		Map<String, AxonWeightsCheckpointRecord> indexed = new LinkedHashMap<>();
+		long size = channel.size();
+		long position = AxonWeightsCheckpointFormat.FILE_HEADER_BYTES;
+		while (position < size) {
+			AxonWeightsCheckpointRecord record;
+			try {
+				record = readHeader(channel, position);
+			} catch (EOFException e) {
+				// A partially written trailing record header
+				break;
+			}
+			long end = record.dataPosition + record.getFloatCount() * Float.BYTES;
+			if (end > size) {
+				// A partially written trailing record
+				break;
+			}
+			indexed.remove(record.name);
+			indexed.put(record.name, record);
+			position = end;
+		}
+		records.putAll(indexed);
+		return position;
+	}
+
+	private static AxonWeightsCheckpointRecord readHeader(FileChannel channel, long position) throws IOException {
+		channel.position(position);
+		ByteBuffer buffer = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+		AxonWeightsCheckpointFormat.readFully(channel, buffer);
+		buffer.flip();
+		if (buffer.getInt() != AxonWeightsCheckpointFormat.RECORD_MAGIC) {
+			throw corrupt(position, "bad record magic");
+		}
+		short nameLength = buffer.getShort();
+		if (nameLength < 0) {
+			throw corrupt(position, "negative name length");
+		}
+		byte[] nameBytes = new byte[nameLength];
+		ByteBuffer nameBuffer = ByteBuffer.wrap(nameBytes);
+		AxonWeightsCheckpointFormat.readFully(channel, nameBuffer);
+
+		buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		AxonWeightsCheckpointFormat.readFully(channel, buffer);
+		buffer.flip();
+		int shapeLength = buffer.getInt();
+		if (shapeLength < 0 || shapeLength > MAX_SHAPE_LENGTH) {
+			throw corrupt(position, "shape length " + shapeLength);
+		}
+
+		buffer = ByteBuffer.allocate(shapeLength * 4 + 4 * 4 + AxonWeightsCheckpointFormat.CONTENT_DIGEST_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		AxonWeightsCheckpointFormat.readFully(channel, buffer);
+		buffer.flip();
+		int[] shape = new int[shapeLength];
+		for (int i = 0; i < shapeLength; i++) {
+			shape[i] = buffer.getInt();
+		}
+		int weightsRows = buffer.getInt();
+		int weightsColumns = buffer.getInt();
+		int leftToRightBiasLength = buffer.getInt();
+		int rightToLeftBiasLength = buffer.getInt();
+		byte[] contentDigest = new byte[AxonWeightsCheckpointFormat.CONTENT_DIGEST_BYTES];
+		buffer.get(contentDigest);
+		AxonWeightsCheckpointRecord record = new AxonWeightsCheckpointRecord(
+				new String(nameBytes, StandardCharsets.UTF_8), shape, weightsRows, weightsColumns,
+				leftToRightBiasLength, rightToLeftBiasLength, contentDigest, position, channel.position());
+		if (weightsRows < 0 || weightsColumns < 0 || leftToRightBiasLength < -1 || rightToLeftBiasLength < -1
+				|| (long) weightsRows * weightsColumns > Integer.MAX_VALUE) {
+			throw corrupt(position, "weights " + weightsRows + "x" + weightsColumns + ", bias lengths "
+					+ leftToRightBiasLength + " and " + rightToLeftBiasLength);
+		}
+		return record;
+	}
+
+	private static IOException corrupt(long position, String reason) {
+		return new IOException("Corrupt axon weights checkpoint record at offset " + position + ": " + reason);
+	}
+
+	long getFloatCount() {
+		return (long) weightsRows * weightsColumns + Math.max(leftToRightBiasLength, 0)
+				+ Math.max(rightToLeftBiasLength, 0);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	int[] getShape() {
+		return shape;
+	}
+
+	int getWeightsRows() {
+		return weightsRows;
+	}
+
+	int getWeightsColumns() {
+		return weightsColumns;
+	}
+
+	byte[] getContentDigest() {
+		return contentDigest;
+	}
+
+	int getLeftToRightBiasLength() {
+		return leftToRightBiasLength;
+	}
+
+	int getRightToLeftBiasLength() {
+		return rightToLeftBiasLength;
+	}
+
+	/**
+	 * @return Whether a record for the specified layout has the same size as this record, so may overwrite it.
+	 */
+	boolean hasLayout(int[] shape, int weightsRows, int weightsColumns, int leftToRightBiasLength,
+			int rightToLeftBiasLength) {
+		return Arrays.equals(this.shape, shape) && this.weightsRows == weightsRows
+				&& this.weightsColumns == weightsColumns && this.leftToRightBiasLength == leftToRightBiasLength
+				&& this.rightToLeftBiasLength == rightToLeftBiasLength;
+	}
+
+	long getRecordPosition() {
+		return recordPosition;
+	}
+
+	long getDataPosition() {
+		return dataPosition;
+	}
+}
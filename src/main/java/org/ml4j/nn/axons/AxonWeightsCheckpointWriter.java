@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes axon weights to a binary checkpoint, streaming the float data of the weights and biases from their 
+ * backing arrays to the channel in bulk transfers, without serializing the axons.
+ * 
+ * Layers are written as records appended to the checkpoint - the writeLayerIfChanged methods skip layers whose 
+ * weights are unchanged since they were last written, so a checkpoint can be saved incrementally.  Low-memory 
+ * convolutional weights whose modification count is unchanged since they were last written by this writer are 
+ * skipped without reading their data - otherwise the content digest of the weights is compared with that of the 
+ * last record of the layer.
+ * 
+ * A writer opened on a checkpoint file overwrites the current record of a layer in place when the layer's shape, 
+ * weights dimensions and bias lengths are unchanged, so repeated incremental saves do not grow the file - a new 
+ * record is only appended for a new layer, or one whose layout has changed.  A record interrupted while being 
+ * overwritten fails the content digest check when it is restored.
+ * 
+ * @author Michael Lavelle
+ */
+public class AxonWeightsCheckpointWriter implements Closeable {
+
+	private WritableByteChannel channel;
+	private FileChannel fileChannel;
+	private ByteBuffer transferBuffer;
+	private Map<String, WrittenLayer> writtenLayers;
+
+	/**
+	 * Streams a new checkpoint to the specified channel.
+	 * 
+	 * @param channel The channel.
+	 * @throws IOException If the file header cannot be written.
+	 */
+	public AxonWeightsCheckpointWriter(WritableByteChannel channel) throws IOException {
+		this(channel, null, new HashMap<>());
+		writeFileHeader(channel);
+	}
+
+	private AxonWeightsCheckpointWriter(WritableByteChannel channel, FileChannel fileChannel,
+			Map<String, WrittenLayer> writtenLayers) {
+		this.channel = channel;
+		this.fileChannel = fileChannel;
+		this.transferBuffer = AxonWeightsCheckpointFormat.createTransferBuffer();
+		this.writtenLayers = writtenLayers;
+	}
+
+	private static void writeFileHeader(WritableByteChannel channel) throws IOException {
+		ByteBuffer fileHeader = ByteBuffer.allocate(AxonWeightsCheckpointFormat.FILE_HEADER_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		fileHeader.putInt(AxonWeightsCheckpointFormat.FILE_MAGIC);
+		fileHeader.putInt(AxonWeightsCheckpointFormat.FORMAT_VERSION);
+		fileHeader.flip();
+		AxonWeightsCheckpointFormat.writeFully(channel, fileHeader);
+	}
+
+	/**
+	 * Opens a checkpoint file for writing, appending to the file if it is an existing checkpoint.  
+	 * 
+	 * A partially written trailing record of an existing checkpoint (one which extends beyond the end of the file) 
+	 * is discarded, as is a partially written file header - a checkpoint containing any other malformed record is 
+	 * not modified.
+	 * 
+	 * @param path The checkpoint file.
+	 * @return A writer for the checkpoint.
+	 * @throws IOException If the file cannot be opened, is not a supported checkpoint, or contains a corrupt 
+	 *         record.
+	 */
+	public static AxonWeightsCheckpointWriter open(Path path) throws IOException {
+		FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			if (fileChannel.size() < AxonWeightsCheckpointFormat.FILE_HEADER_BYTES) {
+				validatePartialFileHeader(fileChannel);
+				fileChannel.truncate(0);
+				fileChannel.position(0);
+				writeFileHeader(fileChannel);
+				return new AxonWeightsCheckpointWriter(fileChannel, fileChannel, new HashMap<>());
+			}
+			Map<String, AxonWeightsCheckpointRecord> records = new LinkedHashMap<>();
+			long length = AxonWeightsCheckpointRecord.index(fileChannel, records);
+			if (length < fileChannel.size()) {
+				fileChannel.truncate(length);
+			}
+			fileChannel.position(length);
+			Map<String, WrittenLayer> writtenLayers = new HashMap<>();
+			for (AxonWeightsCheckpointRecord record : records.values()) {
+				writtenLayers.put(record.getName(), new WrittenLayer(record, null, -1));
+			}
+			return new AxonWeightsCheckpointWriter(fileChannel, fileChannel, writtenLayers);
+		} catch (IOException | RuntimeException e) {
+			fileChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Validates that the bytes of a file shorter than the file header are the start of a file header, written by a 
+	 * writer interrupted before it completed the header.
+	 */
+	private static void validatePartialFileHeader(FileChannel fileChannel) throws IOException {
+		ByteBuffer expected = ByteBuffer.allocate(AxonWeightsCheckpointFormat.FILE_HEADER_BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		expected.putInt(AxonWeightsCheckpointFormat.FILE_MAGIC);
+		expected.putInt(AxonWeightsCheckpointFormat.FORMAT_VERSION);
+		expected.flip();
+		expected.limit((int) fileChannel.size());
+		ByteBuffer actual = ByteBuffer.allocate(expected.limit());
+		fileChannel.position(0);
+		AxonWeightsCheckpointFormat.readFully(fileChannel, actual);
+		actual.flip();
+		if (!actual.equals(expected)) {
+			throw new IOException("Not an axon weights checkpoint");
+		}
+	}
+
+	/**
+	 * Writes a record for the specified layer.
+	 * 
+	 * @param name The name of the layer.
+	 * @param shape The shape of the layer, validated on restore.
+	 * @param axonWeights The axon weights of the layer.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public void writeLayer(String name, int[] shape, AxonWeights axonWeights) throws IOException {
+		long modificationCount = getModificationCount(axonWeights);
+		float[][] arrays = AxonWeightsCheckpointFormat.getArrays(axonWeights);
+		writeLayer(name, shape, axonWeights, arrays,
+				AxonWeightsCheckpointFormat.getContentDigest(arrays, transferBuffer), modificationCount);
+	}
+
+	/**
+	 * Writes a record for the specified layer, unless its weights are unchanged since last written to this 
+	 * checkpoint.
+	 * 
+	 * @param name The name of the layer.
+	 * @param shape The shape of the layer, validated on restore.
+	 * @param axonWeights The axon weights of the layer.
+	 * @return Whether a record was written.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public boolean writeLayerIfChanged(String name, int[] shape, AxonWeights axonWeights) throws IOException {
+		long modificationCount = getModificationCount(axonWeights);
+		WrittenLayer writtenLayer = writtenLayers.get(name);
+		if (writtenLayer != null && modificationCount >= 0 && writtenLayer.axonWeights == axonWeights
+				&& writtenLayer.modificationCount == modificationCount) {
+			return false;
+		}
+		float[][] arrays = AxonWeightsCheckpointFormat.getArrays(axonWeights);
+		byte[] contentDigest = AxonWeightsCheckpointFormat.getContentDigest(arrays, transferBuffer);
+		if (writtenLayer != null && Arrays.equals(writtenLayer.record.getContentDigest(), contentDigest)) {
+			writtenLayers.put(name, new WrittenLayer(writtenLayer.record, axonWeights, modificationCount));
+			return false;
+		}
+		writeLayer(name, shape, axonWeights, arrays, contentDigest, modificationCount);
+		return true;
+	}
+
+	/**
+	 * Writes a record for the specified convolutional axons.
+	 * 
+	 * @param name The name of the layer.
+	 * @param axons The axons.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public void writeAxons(String name, LowMemorySamePaddingConvolutionalAxonsImpl axons) throws IOException {
+		writeLayer(name, AxonWeightsCheckpointFormat.getShape(axons), axons.getAxonWeights());
+	}
+
+	/**
+	 * Writes a record for the specified convolutional axons, unless their weights are unchanged since last written 
+	 * to this checkpoint.
+	 * 
+	 * @param name The name of the layer.
+	 * @param axons The axons.
+	 * @return Whether a record was written.
+	 * @throws IOException If the record cannot be written.
+	 */
+	public boolean writeAxonsIfChanged(String name, LowMemorySamePaddingConvolutionalAxonsImpl axons)
+			throws IOException {
+		return writeLayerIfChanged(name, AxonWeightsCheckpointFormat.getShape(axons), axons.getAxonWeights());
+	}
+
+	private void writeLayer(String name, int[] shape, AxonWeights axonWeights, float[][] arrays,
+			byte[] contentDigest, long modificationCount) throws IOException {
+		float[] weights = arrays[0];
+		float[] leftToRightBiases = arrays[1];
+		float[] rightToLeftBiases = arrays[2];
+		int rows = axonWeights.getConnectionWeights().getMatrix().getRows();
+		int columns = axonWeights.getConnectionWeights().getMatrix().getColumns();
+		if (weights.length != rows * columns) {
+			throw new IllegalArgumentException("Weights array does not match weights dimensions");
+		}
+		int leftToRightBiasLength = leftToRightBiases == null ? -1 : leftToRightBiases.length;
+		int rightToLeftBiasLength = rightToLeftBiases == null ? -1 : rightToLeftBiases.length;
+
+		// Overwrite the current record of the layer if the new record has the same size, otherwise append
+		WrittenLayer writtenLayer = writtenLayers.get(name);
+		long end = fileChannel == null ? -1 : fileChannel.position();
+		long recordPosition = end;
+		if (fileChannel != null && writtenLayer != null && writtenLayer.record.hasLayout(shape, rows, columns,
+				leftToRightBiasLength, rightToLeftBiasLength)) {
+			recordPosition = writtenLayer.record.getRecordPosition();
+			fileChannel.position(recordPosition);
+		}
+
+		ByteBuffer header = AxonWeightsCheckpointRecord.createHeader(name, shape, rows, columns,
+				leftToRightBiasLength, rightToLeftBiasLength, contentDigest);
+		long dataPosition = recordPosition < 0 ? -1 : recordPosition + header.remaining();
+		AxonWeightsCheckpointFormat.writeFully(channel, header);
+		AxonWeightsCheckpointFormat.writeFloats(channel, transferBuffer, weights, 0, weights.length);
+		if (leftToRightBiases != null) {
+			AxonWeightsCheckpointFormat.writeFloats(channel, transferBuffer, leftToRightBiases, 0,
+					leftToRightBiases.length);
+		}
+		if (rightToLeftBiases != null) {
+			AxonWeightsCheckpointFormat.writeFloats(channel, transferBuffer, rightToLeftBiases, 0,
+					rightToLeftBiases.length);
+		}
+		if (fileChannel != null && recordPosition != end) {
+			fileChannel.position(end);
+		}
+		writtenLayers.put(name, new WrittenLayer(new AxonWeightsCheckpointRecord(name, shape.clone(), rows, columns,
+				leftToRightBiasLength, rightToLeftBiasLength, contentDigest, recordPosition, dataPosition),
+				axonWeights, modificationCount));
+	}
+
+	/**
+	 * @return The modification count of the axon weights, or -1 if the axon weights do not track modifications.
+	 */
+	private static long getModificationCount(AxonWeights axonWeights) {
+		if (axonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl) {
+			return ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) axonWeights).getModificationCount();
+		}
+		return -1;
+	}
+
+	/**
+	 * Forces any written records to storage, if the checkpoint is a file.
+	 * 
+	 * @throws IOException If the records cannot be forced to storage.
+	 */
+	public void flush() throws IOException {
+		if (channel instanceof FileChannel) {
+			((FileChannel) channel).force(false);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * The current record of a layer, and the axon weights and their modification count when written by this writer.
+	 */
+	private static class WrittenLayer {
+
+		private AxonWeightsCheckpointRecord record;
+		private AxonWeights axonWeights;
+		private long modificationCount;
+
+		WrittenLayer(AxonWeightsCheckpointRecord record, AxonWeights axonWeights, long modificationCount) {
+			this.record = record;
+			this.axonWeights = axonWeights;
+			this.modificationCount = modificationCount;
+		}
+	}
+}
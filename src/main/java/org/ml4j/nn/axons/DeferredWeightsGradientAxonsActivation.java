@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.ml4j.Matrix;
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * AxonsActivation of a back propagation through low-memory convolutional axons, carrying the weights gradient - 
+ * for asynchronous back propagation, computed after the input gradient, concurrently with back propagation 
+ * through the layers below.
+ * 
+ * @author Michael Lavelle
+ */
+public class DeferredWeightsGradientAxonsActivation extends AxonsActivationImpl {
+
+	private CompletableFuture<Matrix> connectionWeightsGradient;
+
+	public DeferredWeightsGradientAxonsActivation(LowMemorySamePaddingConvolutionalAxonsImpl axons,
+			Supplier<NeuronsActivation> postDropoutInput, NeuronsActivation output,
+			CompletableFuture<Matrix> connectionWeightsGradient) {
+		super(axons, null, postDropoutInput, output);
+		this.connectionWeightsGradient = connectionWeightsGradient;
+	}
+
+	/**
+	 * @return The gradient of the connection weights, summed over the examples, in the layout of the connection
+	 *         weights - completed once the deferred weights gradient work has run, or completed with null if the
+	 *         axons were not trainable or no left to right activation was provided.
+	 */
+	public CompletableFuture<Matrix> getConnectionWeightsGradient() {
+		return connectionWeightsGradient;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.function.Supplier;
+
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * AxonsActivation of fused convolution and pooling axons, retaining the argmax indices needed to back propagate 
+ * through max pooling.
+ * 
+ * @author Michael Lavelle
+ */
+public class FusedPoolingAxonsActivation extends AxonsActivationImpl {
+
+	private int[] argMaxIndices;
+
+	public FusedPoolingAxonsActivation(LowMemorySamePaddingConvolutionalPoolingAxonsImpl axons,
+			Supplier<NeuronsActivation> postDropoutInput, NeuronsActivation output, int[] argMaxIndices) {
+		super(axons, null, postDropoutInput, output);
+		this.argMaxIndices = argMaxIndices;
+	}
+
+	/**
+	 * @return The index within the full resolution convolution output of each max pooled value, or null for
+	 *         average pooling.
+	 */
+	public int[] getArgMaxIndices() {
+		return argMaxIndices;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Execution options for the low-memory k2r-aa convolution implementation.
+ * 
+ * @author Michael Lavelle
+ */
+public class LowMemoryConvolutionOptions implements Serializable {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The cache size assumed when it cannot be detected.
+	 */
+	private static final long DEFAULT_TILE_CACHE_BYTES = 256 * 1024;
+
+	private static final String L2_CACHE_SIZE_PATH = "/sys/devices/system/cpu/cpu0/cache/index2/size";
+
+	private static volatile long detectedTileCacheBytes;
+
+	private boolean sparseKernels;
+	private float sparseDensityThreshold = 0.5f;
+	private boolean tiledExecution;
+	private boolean parallelTiles;
+	private long tileCacheBytes;
+	private int dilationWidth = 1;
+	private int dilationHeight = 1;
+
+	/**
+	 * @return Whether the kernel is analysed for structured sparsity when the weights change, skipping all-zero taps
+	 *         and restricting each tap's GEMM to its non-zero channel blocks.
+	 */
+	public boolean isSparseKernels() {
+		return sparseKernels;
+	}
+
+	/**
+	 * @return The fraction of a tap's weights which must be covered by its non-zero channel blocks before that tap
+	 *         falls back to a single dense GEMM.
+	 */
+	public float getSparseDensityThreshold() {
+		return sparseDensityThreshold;
+	}
+
+	/**
+	 * @return Whether the image is processed in tiles of rows - or of columns within a row, where a single row and
+	 *         its halo do not fit - sized to fit in cache, applying every kernel tap to one tile before moving on to
+	 *         the next, rather than applying each tap to the whole image in turn.
+	 */
+	public boolean isTiledExecution() {
+		return tiledExecution;
+	}
+
+	/**
+	 * @return Whether tiles are processed concurrently, when tiled execution is enabled.
+	 */
+	public boolean isParallelTiles() {
+		return parallelTiles;
+	}
+
+	/**
+	 * @return The cache size, in bytes, that each tile is sized to fit - detected from the L2 cache size of the
+	 *         host unless configured.
+	 */
+	public long getTileCacheBytes() {
+		return tileCacheBytes > 0 ? tileCacheBytes : getDetectedTileCacheBytes();
+	}
+
+	/**
+	 * @return The horizontal spacing between the input columns read by adjacent kernel taps.
+	 */
+	public int getDilationWidth() {
+		return dilationWidth;
+	}
+
+	/**
+	 * @return The vertical spacing between the input rows read by adjacent kernel taps.
+	 */
+	public int getDilationHeight() {
+		return dilationHeight;
+	}
+
+	/**
+	 * @return Whether the convolution is dilated.
+	 */
+	public boolean isDilated() {
+		return dilationWidth > 1 || dilationHeight > 1;
+	}
+
+	private static long getDetectedTileCacheBytes() {
+		if (detectedTileCacheBytes == 0) {
+			detectedTileCacheBytes = detectL2CacheBytes();
+		}
+		return detectedTileCacheBytes;
+	}
+
+	private static long detectL2CacheBytes() {
+		try {
+			String size = new String(Files.readAllBytes(Paths.get(L2_CACHE_SIZE_PATH)), StandardCharsets.US_ASCII)
+					.trim().toUpperCase();
+			if (size.endsWith("K")) {
+				return Long.parseLong(size.substring(0, size.length() - 1)) * 1024;
+			} else if (size.endsWith("M")) {
+				return Long.parseLong(size.substring(0, size.length() - 1)) * 1024 * 1024;
+			} else {
+				return Long.parseLong(size);
+			}
+		} catch (IOException | NumberFormatException | SecurityException e) {
+			return DEFAULT_TILE_CACHE_BYTES;
+		}
+	}
+
+	public LowMemoryConvolutionOptions withSparseKernels(boolean sparseKernels) {
+		this.sparseKernels = sparseKernels;
+		return this;
+	}
+
+	public LowMemoryConvolutionOptions withSparseDensityThreshold(float sparseDensityThreshold) {
+		if (sparseDensityThreshold < 0 || sparseDensityThreshold > 1) {
+			throw new IllegalArgumentException("Sparse density threshold must be between 0 and 1");
+		}
+		this.sparseDensityThreshold = sparseDensityThreshold;
+		return this;
+	}
+
+	public LowMemoryConvolutionOptions withTiledExecution(boolean tiledExecution) {
+		this.tiledExecution = tiledExecution;
+		return this;
+	}
+
+	public LowMemoryConvolutionOptions withParallelTiles(boolean parallelTiles) {
+		this.parallelTiles = parallelTiles;
+		return this;
+	}
+
+	/**
+	 * @param tileCacheBytes The cache size each tile is sized to fit, or 0 to detect it from the host.
+	 * @return These options.
+	 */
+	public LowMemoryConvolutionOptions withTileCacheBytes(long tileCacheBytes) {
+		if (tileCacheBytes < 0) {
+			throw new IllegalArgumentException("Tile cache bytes cannot be negative");
+		}
+		this.tileCacheBytes = tileCacheBytes;
+		return this;
+	}
+
+	/**
+	 * @param dilationWidth The horizontal spacing between the input columns read by adjacent kernel taps.
+	 * @param dilationHeight The vertical spacing between the input rows read by adjacent kernel taps.
+	 * @return These options.
+	 */
+	public LowMemoryConvolutionOptions withDilation(int dilationWidth, int dilationHeight) {
+		if (dilationWidth < 1 || dilationHeight < 1) {
+			throw new IllegalArgumentException("Dilation must be at least 1");
+		}
+		this.dilationWidth = dilationWidth;
+		this.dilationHeight = dilationHeight;
+		return this;
+	}
+
+	public LowMemoryConvolutionOptions dup() {
+		return new LowMemoryConvolutionOptions().withSparseKernels(sparseKernels)
+				.withSparseDensityThreshold(sparseDensityThreshold).withTiledExecution(tiledExecution)
+				.withParallelTiles(parallelTiles).withTileCacheBytes(tileCacheBytes)
+				.withDilation(dilationWidth, dilationHeight);
+	}
+}
@@ -14,15 +14,12 @@
  */
 package org.ml4j.nn.axons;
 
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ml4j.Matrix;
 import org.ml4j.MatrixFactory;
-import org.ml4j.images.Images;
-import org.ml4j.images.MultiChannelImages;
-import org.ml4j.jblas.FloatArray;
-import org.ml4j.jblas.JBlasRowMajorMatrixOptimised;
-import org.ml4j.jblas.RowMajorFloatArrayMatrix;
 import org.ml4j.nn.neurons.ImageNeuronsActivation;
 import org.ml4j.nn.neurons.ImageNeuronsActivationImpl;
 import org.ml4j.nn.neurons.Neurons3D;
@@ -50,284 +47,381 @@ public class LowMemorySamePaddingConvolutionalAxonWeightsImpl extends AxonWeight
 	private static final Logger LOGGER = LoggerFactory.getLogger(LowMemorySamePaddingConvolutionalAxonWeightsImpl.class);
 	
 	private Axons3DConfig config;
+	private LowMemoryConvolutionOptions options;
 	private Neurons3D leftNeurons;
 	private Neurons3D rightNeurons;
+	private transient volatile PackedConvolutionKernel packedKernel;
+	private transient volatile PackedConvolutionKernel packedReversedKernel;
+	private transient volatile float[] packedKernelData;
+	private final AtomicLong modificationCount = new AtomicLong();
 
 	public LowMemorySamePaddingConvolutionalAxonWeightsImpl(Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config, WeightsMatrix connectionWeights,
 			BiasVector leftToRightBiases) {
+		this(leftNeurons, rightNeurons, config, new LowMemoryConvolutionOptions(), connectionWeights, leftToRightBiases);
+	}
+
+	public LowMemorySamePaddingConvolutionalAxonWeightsImpl(Neurons3D leftNeurons, Neurons3D rightNeurons, Axons3DConfig config, 
+			LowMemoryConvolutionOptions options, WeightsMatrix connectionWeights, BiasVector leftToRightBiases) {
 		super(leftNeurons.getNeuronCountExcludingBias(), rightNeurons.getNeuronCountExcludingBias(), 
 				connectionWeights, leftToRightBiases, null, AxonWeightsType.CONVOLUTIONAL);
 		this.config = config;
+		this.options = options;
 		this.leftNeurons = leftNeurons;
 		this.rightNeurons = rightNeurons;
 	}
 
 	@Override
 	public AxonWeights dup() {
-		return new LowMemorySamePaddingConvolutionalAxonWeightsImpl(leftNeurons, rightNeurons, config.dup(), connectionWeights.dup(), 
+		return new LowMemorySamePaddingConvolutionalAxonWeightsImpl(leftNeurons, rightNeurons, config.dup(), options.dup(), connectionWeights.dup(), 
 				leftToRightBiases == null ? null : leftToRightBiases.dup());
 	}
 
+	public LowMemoryConvolutionOptions getOptions() {
+		return options;
+	}
+
+	@Override
+	public void adjustWeights(AxonWeightsAdjustment adjustment, AxonWeightsAdjustmentDirection adjustmentDirection) {
+		super.adjustWeights(adjustment, adjustmentDirection);
+		weightsChanged();
+	}
+
+	/**
+	 * Discards the packed kernels, so that they are repacked (and reanalysed for sparsity) on next use, and 
+	 * increments the modification count.  Must be called if the weights are modified other than through 
+	 * adjustWeights.
+	 */
+	public void weightsChanged() {
+		this.packedKernel = null;
+		this.packedReversedKernel = null;
+		modificationCount.incrementAndGet();
+	}
+
+	/**
+	 * @return The number of times the weights have been changed through adjustWeights or weightsChanged.
+	 */
+	public long getModificationCount() {
+		return modificationCount.get();
+	}
+
 	@Override
 	public NeuronsActivation applyToLeftToRightInput(NeuronsActivation input, AxonsContext axonsContext) {
 		
-		Matrix kernelMatrix = getConnectionWeights().getMatrix();
-		
 		Matrix biasMatrix = getLeftToRightBiases() == null ? null : getLeftToRightBiases().getVector();
 
-		return performConvolution(input, axonsContext, kernelMatrix, biasMatrix,
+		return performConvolution(input, axonsContext, getPackedKernel(false), biasMatrix,
 				leftNeurons, rightNeurons);
 	}
 
 	@Override
 	public NeuronsActivation applyToRightToLeftInput(NeuronsActivation input, AxonsContext axonsContext) {
 		
-		Matrix kernelMatrix = getReversedKernel(axonsContext.getMatrixFactory(), leftNeurons, rightNeurons,
-				getConnectionWeights().getMatrix(), config);
 		Matrix biasMatrix = getRightToLeftBiases() == null ? null : getRightToLeftBiases().getVector();
 
-		return performConvolution(input, axonsContext, kernelMatrix,
+		return performConvolution(input, axonsContext, getPackedKernel(true),
 				biasMatrix, rightNeurons, leftNeurons);
 	}
-	
-	private static Matrix getReversedKernel(MatrixFactory matrixFactory, Neurons3D leftNeurons, Neurons3D rightNeurons,
-			Matrix kernel, Axons3DConfig config) {
-		float[] data = kernel.getRowByRowArray();
-		float[] reversedData = new float[data.length];
-
-		int filterWidth = config.getFilterWidth();
-		int filterHeight = config.getFilterHeight();
 
-		for (int o = 0; o < rightNeurons.getDepth(); o++) {
-			for (int i = 0; i < leftNeurons.getDepth(); i++) {
-				int start1 = o * leftNeurons.getDepth() * filterWidth * filterHeight + i * filterWidth * filterHeight;
-				int start2 = i * rightNeurons.getDepth() * filterWidth * filterHeight + o * filterWidth * filterHeight;
-
-				int end2 = start2 + filterHeight * filterWidth - 1;
-
-				for (int h = 0; h < filterHeight; h++) {
-					for (int w = 0; w < filterWidth; w++) {
-						int offset = h * filterWidth + w;
-						reversedData[start1 + offset] = data[end2 - offset];
-					}
-				}
+	private PackedConvolutionKernel getPackedKernel(boolean reversed) {
+		float[] kernelData = getConnectionWeights().getMatrix().getRowByRowArray();
+		PackedConvolutionKernel packed = reversed ? packedReversedKernel : packedKernel;
+		if (packed == null || packedKernelData != kernelData) {
+			packed = PackedConvolutionKernel.pack(kernelData, rightNeurons.getDepth(), leftNeurons.getDepth(),
+					getKernelHeight(leftNeurons, rightNeurons), getKernelWidth(leftNeurons, rightNeurons), reversed,
+					options);
+			if (packedKernelData != kernelData) {
+				packedKernel = null;
+				packedReversedKernel = null;
+				packedKernelData = kernelData;
+			}
+			if (reversed) {
+				packedReversedKernel = packed;
+			} else {
+				packedKernel = packed;
+			}
+			if (options.isSparseKernels()) {
+				LOGGER.debug("Packed kernel with multiplied density:" + packed.getMultipliedDensity());
 			}
 		}
-		return matrixFactory.createMatrixFromRowsByRowsArray(kernel.getRows(), kernel.getColumns(), reversedData);
+		return packed;
 	}
 	
 	private ImageNeuronsActivation performConvolution(NeuronsActivation inputMatrix, AxonsContext axonsContext,
-			Matrix kernelMatrix, Matrix biasMatrix, Neurons3D leftNeurons, Neurons3D rightNeurons) {
+			PackedConvolutionKernel kernel, Matrix biasMatrix, Neurons3D leftNeurons, Neurons3D rightNeurons) {
 
-		LOGGER.debug("Pushing left to right through FC axons");
+		LOGGER.debug("Pushing left to right through Conv axons");
 
 		int examples = inputMatrix.getExampleCount();
 		int outputChannels = rightNeurons.getDepth();
-		int inputChannels = leftNeurons.getDepth();
-
-		int inputWidth = leftNeurons.getWidth();
-		int inputHeight = leftNeurons.getHeight();
-		int outputWidth = rightNeurons.getWidth();
-		int outputHeight = rightNeurons.getHeight();
-
-		int inputWidthWithPadding = inputWidth + config.getPaddingWidth() * 2;
-		int inputHeightWithPadding = inputHeight + config.getPaddingHeight() * 2;
-		int kernelWidth = inputWidthWithPadding + (1 - outputWidth) * (config.getStrideWidth());
-		int kernelHeight = inputHeightWithPadding + (1 - outputHeight) * (config.getStrideHeight());
-
-		int m = rightNeurons.getDepth();
-
-		float f = ((float) kernelWidth) / ((float) (inputHeight + inputWidth));
-		int delta = (int) Math.ceil((double) f);
-		float[] targetData = new float[(m + 2 * delta) * inputWidth * inputHeight * examples];
-
-		NeuronsActivation inputMat = inputMatrix;
-
-		RowMajorFloatArrayMatrix k = null;
-		int targetOffset = 0;
-		float[] inputData = null;
-		float alpha = 1f;
-		float beta = 1f;
-		float[] kData = null;
-
-		// Kernel matrix is output channels * input channels, height, width,
-		Matrix kernelMatrixNew = kernelMatrix;
-
-		Matrix inputMatDup = inputMat.getActivations(axonsContext.getMatrixFactory());
-
-		kernelMatrixNew = kernelMatrixNew.softDup();
-
-		kernelMatrixNew.asEditableMatrix().reshape(outputChannels * inputChannels, kernelHeight * kernelWidth);
-		kernelMatrixNew = kernelMatrixNew.transpose();
-
-		for (int h = 0; h < kernelHeight; h++) {
-			for (int w = 0; w < kernelWidth; w++) {
-				float[] rowS = null;
-				float[] rowE = null;
-				float[] colS = null;
-				float[] colE = null;
-
-				Matrix row = kernelMatrixNew.getRow(h * kernelWidth + w);
-				row.asEditableMatrix().reshape(outputChannels, inputChannels);
-				Matrix row2 = row;
-				kData = row2.getRowByRowArray();
-				k = new RowMajorFloatArrayMatrix(new FloatArray(kData, 0), outputChannels, inputChannels);
+		int width = rightNeurons.getWidth();
+		int height = rightNeurons.getHeight();
 
-				Matrix mat = inputMatDup;
+		float[] inputData = inputMatrix.getActivations(axonsContext.getMatrixFactory()).getRowByRowArray();
+		Matrix output = axonsContext.getMatrixFactory().createMatrix(outputChannels * width * height, examples);
 
-				inputData = mat.getRowByRowArray();
+		ShiftedGemmConvolution.accumulate(kernel, options, inputData, output.getRowByRowArray(), width, height,
+				examples);
 
-				synchronized (inputData) {
-
-					if (h == 0) {
-						rowS = zeroRow(inputData, inputWidth, inputHeight, inputChannels, examples, inputHeight - 1);
-					} else if (h == (kernelHeight - 1)) {
-						rowE = zeroRow(inputData, inputWidth, inputHeight, inputChannels, examples, 0);
-					}
-					if (w == 0) {
-						colS = zeroColumn(inputData, inputWidth, inputHeight, inputChannels, examples, inputWidth - 1);
-					} else if (w == (kernelWidth - 1)) {
-						colE = zeroColumn(inputData, inputWidth, inputHeight, inputChannels, examples, 0);
+		if (leftNeurons.hasBiasUnit() && biasMatrix != null) {
+			if (biasMatrix.getRows() == outputChannels && output.getRows() != outputChannels) {
+				// A bias per channel, rather than per output neuron
+				float[] biasData = biasMatrix.getRowByRowArray();
+				float[] outputData = output.getRowByRowArray();
+				int channelColumns = width * height * examples;
+				for (int c = 0; c < outputChannels; c++) {
+					float bias = biasData[c];
+					int channelStart = c * channelColumns;
+					for (int i = channelStart; i < channelStart + channelColumns; i++) {
+						outputData[i] += bias;
 					}
+				}
+			} else {
+				output.asEditableMatrix().addiColumnVector(biasMatrix);
+			}
+		}
 
-					int z = kernelWidth / 2;
-
-					int halfFilterHeightIndex = kernelHeight / 2;
-					int halfFilterWidthIndex = kernelWidth / 2;
+		LOGGER.debug("End Pushing left to right through Conv axons");
 
-					int otTimesExamples = delta * (inputWidth * inputHeight * examples)
-							- z * ((halfFilterHeightIndex * inputWidth) + halfFilterWidthIndex + 1) * examples;
-					targetOffset = otTimesExamples + z * ((h * inputWidth) + w + 1) * examples;
+		return new ImageNeuronsActivationImpl(output, rightNeurons,
+				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT, false);
+	}
 
-					int targetOffsetAdj = (targetOffset - delta * (inputWidth * inputHeight * examples));
+	/**
+	 * Applies the convolution and pools the output in the same pass.  Once every tap has been applied to a tile of
+	 * image rows the tile is final, so the convolution is accumulated one tile at a time into a single reused 
+	 * tile-sized buffer - covering whole pooling windows - and each tile is pooled as soon as it is complete.  Only
+	 * the tile buffer and the pooled output are allocated, rather than the full resolution convolution output.
+	 * 
+	 * @param input The input activation.
+	 * @param axonsContext The axons context.
+	 * @param poolingType The type of pooling to apply to the convolution output.
+	 * @param poolingConfig The pooling config - its left neurons must match the right neurons of these weights.
+	 * @param argMaxIndices For max pooling, populated with the index within the convolution output of each pooled 
+	 * value - may be null for average pooling.
+	 * @return The pooled activation.
+	 */
+	public ImageNeuronsActivation applyToLeftToRightInputWithPooling(NeuronsActivation input,
+			AxonsContext axonsContext, FusedPoolingType poolingType, Axons3DConfig poolingConfig, int[] argMaxIndices) {
 
-					int targetOffsetAdjNegated = -targetOffsetAdj;
-					targetOffset = targetOffsetAdjNegated + delta * (inputWidth * inputHeight * examples);
+		Matrix biasMatrix = leftNeurons.hasBiasUnit() && getLeftToRightBiases() != null
+				? getLeftToRightBiases().getVector()
+				: null;
 
-					RowMajorFloatArrayMatrix b = new RowMajorFloatArrayMatrix(new FloatArray(inputData, 0), inputChannels,
-							inputWidth * inputHeight * examples);
+		return convolveWithPooling(getPackedKernel(false), options,
+				biasMatrix == null ? null : biasMatrix.getRowByRowArray(), input, axonsContext, rightNeurons,
+				poolingType, poolingConfig, argMaxIndices);
+	}
 
-					JBlasRowMajorMatrixOptimised.gemm(alpha, k, b, beta,
-							new RowMajorFloatArrayMatrix(new FloatArray(targetData, targetOffset), outputChannels,
-									inputWidth * inputHeight * examples));
+	/**
+	 * Applies a packed kernel and pools the output in the same pass, as for applyToLeftToRightInputWithPooling.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param options The options determining how the convolution is dilated and tiled.
+	 * @param biasData The biases, per output channel or per output neuron - may be null.
+	 * @param input The input activation.
+	 * @param axonsContext The axons context.
+	 * @param rightNeurons The neurons of the convolution output.
+	 * @param poolingType The type of pooling to apply to the convolution output.
+	 * @param poolingConfig The pooling config - its left neurons must match the convolution output neurons.
+	 * @param argMaxIndices For max pooling, populated with the index within the convolution output of each pooled 
+	 * value - may be null.
+	 * @return The pooled activation.
+	 */
+	static ImageNeuronsActivation convolveWithPooling(PackedConvolutionKernel kernel,
+			LowMemoryConvolutionOptions options, float[] biasData, NeuronsActivation input,
+			AxonsContext axonsContext, Neurons3D rightNeurons, FusedPoolingType poolingType,
+			Axons3DConfig poolingConfig, int[] argMaxIndices) {
 
-					if (rowS != null) {
-						resetRow(inputData, inputWidth, inputHeight, inputChannels, examples, inputHeight - 1, rowS);
-					}
-					if (rowE != null) {
-						resetRow(inputData, inputWidth, inputHeight, inputChannels, examples, 0, rowE);
-					}
-					if (colS != null) {
-						resetColumn(inputData, inputWidth, inputHeight, inputChannels, examples, inputWidth - 1, colS);
-					}
-					if (colE != null) {
-						resetColumn(inputData, inputWidth, inputHeight, inputChannels, examples, 0, colE);
+		int examples = input.getExampleCount();
+		int outputChannels = rightNeurons.getDepth();
+		int width = rightNeurons.getWidth();
+		int height = rightNeurons.getHeight();
+		int pooledWidth = poolingConfig.getRightNeurons().getWidth();
+		int pooledHeight = poolingConfig.getRightNeurons().getHeight();
+		int filterWidth = poolingConfig.getFilterWidth();
+		int filterHeight = poolingConfig.getFilterHeight();
+		int strideWidth = poolingConfig.getStrideWidth();
+		int strideHeight = poolingConfig.getStrideHeight();
+
+		float[] inputData = input.getActivations(axonsContext.getMatrixFactory()).getRowByRowArray();
+
+		// Each tile holds the convolution rows of a whole number of pooled rows
+		int pooledRowsPerTile = Math.max(1,
+				ShiftedGemmConvolution.getTileRows(kernel, options, width, height, examples) / strideHeight);
+		int tileRows = Math.min(height, (pooledRowsPerTile - 1) * strideHeight + filterHeight);
+		int tileColumns = tileRows * width * examples;
+		float[] tileData = new float[outputChannels * tileColumns];
+		float[] scratch = new float[ShiftedGemmConvolution.getScratchSize(kernel, width, tileRows, examples,
+				options.getDilationWidth() * (kernel.getKernelWidth() / 2))];
+
+		boolean biasPerChannel = biasData != null && biasData.length == outputChannels;
+
+		Matrix pooled = axonsContext.getMatrixFactory().createMatrix(outputChannels * pooledWidth * pooledHeight,
+				examples);
+		float[] pooledData = pooled.getRowByRowArray();
+		float windowSize = filterWidth * filterHeight;
+
+		for (int startPooledRow = 0; startPooledRow < pooledHeight; startPooledRow += pooledRowsPerTile) {
+			int endPooledRow = Math.min(pooledHeight, startPooledRow + pooledRowsPerTile);
+			int startY = startPooledRow * strideHeight;
+			int endY = (endPooledRow - 1) * strideHeight + filterHeight;
+
+			Arrays.fill(tileData, 0f);
+			ShiftedGemmConvolution.accumulateRows(kernel, options.getDilationWidth(), options.getDilationHeight(),
+					inputData, tileData, startY, tileRows, width, height, examples, startY, endY, scratch);
+
+			for (int c = 0; c < outputChannels; c++) {
+				int tileChannelStart = c * tileColumns - startY * width * examples;
+				int channelStart = c * height * width * examples;
+				for (int py = startPooledRow; py < endPooledRow; py++) {
+					int pooledIndex = ((c * pooledHeight + py) * pooledWidth) * examples;
+					for (int px = 0; px < pooledWidth; px++) {
+						for (int e = 0; e < examples; e++) {
+							float max = Float.NEGATIVE_INFINITY;
+							float sum = 0;
+							int argMax = -1;
+							for (int fy = 0; fy < filterHeight; fy++) {
+								int y = py * strideHeight + fy;
+								for (int fx = 0; fx < filterWidth; fx++) {
+									int x = px * strideWidth + fx;
+									int offset = (y * width + x) * examples + e;
+									float value = tileData[tileChannelStart + offset];
+									if (biasData != null) {
+										value += biasPerChannel ? biasData[c] : biasData[c * height * width + y * width + x];
+									}
+									if (value > max || argMax == -1) {
+										max = value;
+										argMax = channelStart + offset;
+									}
+									sum += value;
+								}
+							}
+							if (poolingType == FusedPoolingType.MAX) {
+								pooledData[pooledIndex] = max;
+								if (argMaxIndices != null) {
+									argMaxIndices[pooledIndex] = argMax;
+								}
+							} else {
+								pooledData[pooledIndex] = sum / windowSize;
+							}
+							pooledIndex++;
+						}
 					}
 				}
 			}
 		}
 
-		LOGGER.debug("End left to right pushing through FC axons");
-
-		LOGGER.debug("End Pushing left to right through Conv axons");
-		if (leftNeurons.hasBiasUnit() && biasMatrix != null) {
-			return createOutputActivationByCopyingData(axonsContext.getMatrixFactory(), targetData, inputWidth,
-					inputHeight, outputChannels, examples, delta, biasMatrix);
-		} else {
-			return createOutputActivationByReferencingData(targetData, inputWidth, inputHeight, outputChannels,
-					examples, delta, rightNeurons);
-		}
-
-	}
-	
-	private ImageNeuronsActivation createOutputActivationByReferencingData(float[] targetData, int inputWidth,
-			int inputHeight, int outputChannels, int examples, int delta, Neurons3D rightNeurons) {
-		Images outputImage = new MultiChannelImages(targetData, delta * inputWidth * inputHeight * examples,
-				outputChannels, inputHeight, inputWidth, 0, 0, examples);
-		return new ImageNeuronsActivationImpl(rightNeurons, outputImage,
+		return new ImageNeuronsActivationImpl(pooled, poolingConfig.getRightNeurons(),
 				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT, false);
-
 	}
 
-	private ImageNeuronsActivation createOutputActivationByCopyingData(MatrixFactory matrixFactory, float[] targetData,
-			int inputWidth, int inputHeight, int outputChannels, int examples, int delta, Matrix biasMatrix) {
-		Matrix outFinal = matrixFactory.createMatrix(outputChannels, inputWidth * inputHeight * examples);
-
-		float[] outFinalData = outFinal.getRowByRowArray();
-
-		System.arraycopy(targetData, delta * inputWidth * inputHeight * examples, outFinalData, 0,
-				outputChannels * inputWidth * inputHeight * examples);
-
-		outFinal.asEditableMatrix().reshape(outputChannels * inputWidth * inputHeight, examples);
-		if (biasMatrix != null) {
-			outFinal.asEditableMatrix().addiColumnVector(biasMatrix);
-		}
+	/**
+	 * Computes the gradient of the connection weights, summed over the examples, from the input and output 
+	 * gradient of a training step.
+	 * 
+	 * Each tap's gradient is accumulated by GEMMs of the output gradient with the shifted input, so the input is
+	 * never expanded into an im2col matrix - the only workspace is a single outputChannels * inputChannels tap.
+	 * 
+	 * @param leftInput The input which was propagated left to right.
+	 * @param rightGradient The gradient with respect to the output, in the default image format.
+	 * @param axonsContext The axons context.
+	 * @return The gradient, in the layout of the connection weights.
+	 */
+	public Matrix getConnectionWeightsGradient(NeuronsActivation leftInput, NeuronsActivation rightGradient,
+			AxonsContext axonsContext) {
 
-		return new ImageNeuronsActivationImpl(outFinal, rightNeurons,
-				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT, false);
+		int examples = leftInput.getExampleCount();
+		int inputChannels = leftNeurons.getDepth();
+		int outputChannels = rightNeurons.getDepth();
+		int width = rightNeurons.getWidth();
+		int height = rightNeurons.getHeight();
+		int kernelWidth = getKernelWidth(leftNeurons, rightNeurons);
+		int kernelHeight = getKernelHeight(leftNeurons, rightNeurons);
+		int taps = kernelWidth * kernelHeight;
+
+		float[] inputData = leftInput.getActivations(axonsContext.getMatrixFactory()).getRowByRowArray();
+		float[] gradientData = rightGradient.getActivations(axonsContext.getMatrixFactory()).getRowByRowArray();
+		Matrix weightsGradient = axonsContext.getMatrixFactory().createMatrix(outputChannels,
+				inputChannels * taps);
+		float[] weightsGradientData = weightsGradient.getRowByRowArray();
+		float[] tapGradient = new float[outputChannels * inputChannels];
 
-	}
-	
-	private float[] zeroColumn(float[] data, int width, int height, int inputChannels, int examples, int c) {
-		float[] oldValues = new float[inputChannels * width * examples];
-		int index = 0;
-		for (int i = 0; i < inputChannels; i++) {
-			for (int h = 0; h < height; h++) {
-				int startInd = i * height * width * examples + h * width * examples + c * examples;
-				for (int e = 0; e < examples; e++) {
-					oldValues[index] = data[startInd + e];
-					data[startInd + e] = 0;
-					index++;
+		for (int h = 0; h < kernelHeight; h++) {
+			for (int w = 0; w < kernelWidth; w++) {
+				int tap = h * kernelWidth + w;
+				Arrays.fill(tapGradient, 0f);
+				ShiftedGemmConvolution.accumulateTapGradient(gradientData, inputData, tapGradient, outputChannels,
+						inputChannels, options.getDilationHeight() * (h - kernelHeight / 2),
+						options.getDilationWidth() * (w - kernelWidth / 2), width, height, examples);
+				for (int i = 0; i < tapGradient.length; i++) {
+					weightsGradientData[i * taps + tap] = tapGradient[i];
 				}
 			}
 		}
-		return oldValues;
+		return weightsGradient;
 	}
 
-	private float[] resetColumn(float[] data, int width, int height, int inputChannels, int examples, int c,
-			float[] oldValues) {
-		int index = 0;
+	/**
+	 * Expands the input into the im2col matrix of the (possibly dilated) convolution, with a row for each input 
+	 * channel and kernel tap, and a column for each output position and example.
+	 * 
+	 * Only required where the im2col matrix itself is requested - the convolution and its gradients are computed
+	 * without it.
+	 * 
+	 * @param matrixFactory The matrix factory.
+	 * @param input The input, in the default image format.
+	 * @return The im2col matrix.
+	 */
+	public Matrix im2ColConv(MatrixFactory matrixFactory, NeuronsActivation input) {
+		int examples = input.getExampleCount();
+		int inputChannels = leftNeurons.getDepth();
+		int width = rightNeurons.getWidth();
+		int height = rightNeurons.getHeight();
+		int kernelWidth = getKernelWidth(leftNeurons, rightNeurons);
+		int kernelHeight = getKernelHeight(leftNeurons, rightNeurons);
+		int columns = width * height * examples;
+
+		float[] inputData = input.getActivations(matrixFactory).getRowByRowArray();
+		Matrix im2Col = matrixFactory.createMatrix(inputChannels * kernelWidth * kernelHeight, columns);
+		float[] im2ColData = im2Col.getRowByRowArray();
+
+		int row = 0;
 		for (int i = 0; i < inputChannels; i++) {
-			for (int h = 0; h < height; h++) {
-				int startInd = i * height * width * examples + h * width * examples + c * examples;
-				for (int e = 0; e < examples; e++) {
-					data[startInd + e] = oldValues[index];
-					index++;
+			for (int h = 0; h < kernelHeight; h++) {
+				int shiftHeight = options.getDilationHeight() * (h - kernelHeight / 2);
+				for (int w = 0; w < kernelWidth; w++) {
+					int shiftWidth = options.getDilationWidth() * (w - kernelWidth / 2);
+					int startX = Math.max(0, -shiftWidth);
+					int endX = Math.min(width, width - shiftWidth);
+					if (startX < endX) {
+						for (int y = Math.max(0, -shiftHeight); y < Math.min(height, height - shiftHeight); y++) {
+							int start = (y * width + startX) * examples;
+							System.arraycopy(inputData,
+									i * columns + start + (shiftHeight * width + shiftWidth) * examples,
+									im2ColData, row * columns + start, (endX - startX) * examples);
+						}
+					}
+					row++;
 				}
 			}
 		}
-		return oldValues;
+		return im2Col;
 	}
 
-	private float[] zeroRow(float[] data, int width, int height, int inputChannels, int examples, int r) {
-		float[] oldValues = new float[inputChannels * width * examples];
-		int index = 0;
-		for (int i = 0; i < inputChannels; i++) {
-			for (int w = 0; w < width; w++) {
-				int startInd = i * height * width * examples + (r * width) * examples + w * examples;
-				for (int e = 0; e < examples; e++) {
-					data[startInd + e] = 0;
-					oldValues[index] = data[startInd + e];
-					index++;
-				}
-			}
-		}
-		return oldValues;
+	/**
+	 * @return The width of the kernel - for a dilated kernel, the number of taps across rather than the extent of
+	 *         the taps.
+	 */
+	private int getKernelWidth(Neurons3D leftNeurons, Neurons3D rightNeurons) {
+		int inputWidthWithPadding = leftNeurons.getWidth() + config.getPaddingWidth() * 2;
+		int extent = inputWidthWithPadding + (1 - rightNeurons.getWidth()) * (config.getStrideWidth());
+		return (extent - 1) / options.getDilationWidth() + 1;
 	}
 
-	private float[] resetRow(float[] data, int width, int height, int inputChannels, int examples, int r,
-			float[] oldValues) {
-		int index = 0;
-		for (int i = 0; i < inputChannels; i++) {
-			for (int w = 0; w < width; w++) {
-				int startInd = i * height * width * examples + (r * width) * examples + w * examples;
-				for (int e = 0; e < examples; e++) {
-					data[startInd + e] = oldValues[index];
-					index++;
-				}
-			}
-		}
-		return oldValues;
+	private int getKernelHeight(Neurons3D leftNeurons, Neurons3D rightNeurons) {
+		int inputHeightWithPadding = leftNeurons.getHeight() + config.getPaddingHeight() * 2;
+		int extent = inputHeightWithPadding + (1 - rightNeurons.getHeight()) * (config.getStrideHeight());
+		return (extent - 1) / options.getDilationHeight() + 1;
 	}
 
 	@Override
@@ -15,7 +15,9 @@
 package org.ml4j.nn.axons;
 
 import java.util.Optional;
-import java.util.function.Supplier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ml4j.Matrix;
 import org.ml4j.MatrixFactory;
@@ -43,21 +45,59 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 	 */
 	private static final long serialVersionUID = 1L;
 
-	private Axons3DConfig config;
-	private AxonWeights convolutionalAxonWeights;
+	protected Axons3DConfig config;
+	protected AxonWeights convolutionalAxonWeights;
+	private transient SharedAxonWeightsUpdater sharedWeightsUpdater;
+	private transient Executor executor;
 	
 	public LowMemorySamePaddingConvolutionalAxonsImpl(Axons3DConfig config, AxonWeights convolutionalAxonWeights) {
 		this.config = config;
 		this.convolutionalAxonWeights = convolutionalAxonWeights;
+		LowMemoryConvolutionOptions options = getOptions();
+		if (!isEligible(config, options.getDilationWidth(), options.getDilationHeight())) {
+			throw new IllegalArgumentException("Config is not supported by low-memory same padding convolution");
+		}
 	}
 
 	public LowMemorySamePaddingConvolutionalAxonsImpl(MatrixFactory matrixFactory, Axons3DConfig config,
 			WeightsMatrix weightsMatrix, BiasVector biasMatrix) {
+		this(matrixFactory, config, new LowMemoryConvolutionOptions(), weightsMatrix, biasMatrix);
+	}
+
+	public LowMemorySamePaddingConvolutionalAxonsImpl(MatrixFactory matrixFactory, Axons3DConfig config,
+			LowMemoryConvolutionOptions options, WeightsMatrix weightsMatrix, BiasVector biasMatrix) {
 		this(config, 
-				createInitialAxonWeights(matrixFactory, config, weightsMatrix, biasMatrix));
+				createInitialAxonWeights(matrixFactory, config, options, weightsMatrix, biasMatrix));
 	}
 	
-	private static AxonWeights createInitialAxonWeights(MatrixFactory matrixFactory, Axons3DConfig config, WeightsMatrix connectionWeights, BiasVector leftToRightBiases) {
+	/**
+	 * @param config The axons config.
+	 * @return Whether the low-memory same padding implementation supports the specified config.
+	 */
+	public static boolean isEligible(Axons3DConfig config) {
+		return config.getFilterHeight() == config.getFilterWidth() && config.getStrideHeight() == 1
+				&& config.getStrideWidth() == 1
+				&& config.getLeftNeurons().getWidth() == config.getRightNeurons().getWidth()
+				&& config.getLeftNeurons().getHeight() == config.getRightNeurons().getHeight();
+	}
+
+	/**
+	 * @param config The axons config.
+	 * @param dilationWidth The horizontal dilation of the filter.
+	 * @param dilationHeight The vertical dilation of the filter.
+	 * @return Whether the low-memory same padding implementation supports the specified config with the specified
+	 *         dilation - the padding must be that which preserves the image size for the dilated filter.
+	 */
+	public static boolean isEligible(Axons3DConfig config, int dilationWidth, int dilationHeight) {
+		if (dilationWidth == 1 && dilationHeight == 1) {
+			return isEligible(config);
+		}
+		return isEligible(config) && config.getPaddingWidth() * 2 == dilationWidth * (config.getFilterWidth() - 1)
+				&& config.getPaddingHeight() * 2 == dilationHeight * (config.getFilterHeight() - 1);
+	}
+	
+	private static AxonWeights createInitialAxonWeights(MatrixFactory matrixFactory, Axons3DConfig config, LowMemoryConvolutionOptions options, 
+			WeightsMatrix connectionWeights, BiasVector leftToRightBiases) {
 		
 		if (connectionWeights == null) {
 			throw new IllegalArgumentException("WeightsMatrix cannot be null");
@@ -76,7 +116,7 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 				: Optional.of(leftToRightBiases.getVector());
 				
 		return new LowMemorySamePaddingConvolutionalAxonWeightsImpl(config.getLeftNeurons(), 
-				config.getRightNeurons(), config, new WeightsMatrixImpl(initialConnectionWeights,
+				config.getRightNeurons(), config, options, new WeightsMatrixImpl(initialConnectionWeights,
 						connectionWeights.getFormat()), config.getLeftNeurons().hasBiasUnit() && initialLeftToRightBiases.isPresent() ? new BiasVectorImpl(initialLeftToRightBiases.get(),
 								FeaturesVectorFormat.DEFAULT_BIAS_FORMAT)
 						: null);		
@@ -85,10 +125,51 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 	
 	
 
+	/**
+	 * Enables concurrent weight adjustments from several data-parallel workers sharing these axons, in place of a
+	 * dup() of the axons per worker.
+	 * 
+	 * Each worker's adjustments are reduced into the shared weights according to the update mode - for SYNCHRONOUS
+	 * updates, every worker must adjust the weights once per step and the shared weights are adjusted by the mean 
+	 * of the workers' adjustments.  Duplicates of these axons do not share weights, so are not affected.
+	 * 
+	 * @param updateMode The update mode.
+	 * @param workerCount The number of workers adjusting the weights.
+	 * @return These axons.
+	 */
+	public LowMemorySamePaddingConvolutionalAxonsImpl withSharedWeightUpdates(SharedWeightsUpdateMode updateMode,
+			int workerCount) {
+		this.sharedWeightsUpdater = new SharedAxonWeightsUpdater(convolutionalAxonWeights, updateMode, workerCount);
+		return this;
+	}
+
+	/**
+	 * Sets the executor on which the asynchronous push methods run - the common fork join pool is used unless 
+	 * configured.  Duplicates of these axons do not share the executor.
+	 * 
+	 * @param executor The executor.
+	 * @return These axons.
+	 */
+	public LowMemorySamePaddingConvolutionalAxonsImpl withExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	private Executor getExecutor() {
+		return executor == null ? ForkJoinPool.commonPool() : executor;
+	}
+
 	@Override
 	public void adjustAxonWeights(AxonWeightsAdjustment adjustment,
 			AxonWeightsAdjustmentDirection adjustmentDirection) {
-		convolutionalAxonWeights.adjustWeights(adjustment, adjustmentDirection);
+		if (sharedWeightsUpdater != null) {
+			sharedWeightsUpdater.adjustWeights(adjustment, adjustmentDirection);
+			if (convolutionalAxonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl) {
+				((LowMemorySamePaddingConvolutionalAxonWeightsImpl) convolutionalAxonWeights).weightsChanged();
+			}
+		} else {
+			convolutionalAxonWeights.adjustWeights(adjustment, adjustmentDirection);
+		}
 	}
 
 	@Override
@@ -101,6 +182,16 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 		return config.getRightNeurons();
 	}
 
+	/**
+	 * Expands the input into its im2col matrix - for dilated axons, the im2col matrix of the dilated filter.
+	 * 
+	 * Propagation and training through these axons never call this method - the left to right activation 
+	 * retains the input itself, and the weights gradient is computed from it by getConnectionWeightsGradient.
+	 * 
+	 * @param matrixFactory The matrix factory.
+	 * @param leftNeuronsActivation The input.
+	 * @return The im2col matrix of the input.
+	 */
 	public NeuronsActivation reformatLeftToRightInput(MatrixFactory matrixFactory,
 			NeuronsActivation leftNeuronsActivation) {
 
@@ -108,7 +199,8 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 			ImageNeuronsActivation imageAct = leftNeuronsActivation.asImageNeuronsActivation(config.getLeftNeurons(), DimensionScope.INPUT);
 			reformatted = new NeuronsActivationImpl(
 					new Neurons(config.getLeftNeurons().getDepth() * config.getFilterWidth() * config.getFilterWidth(), config.getLeftNeurons().hasBiasUnit()),
-					imageAct.im2ColConv(matrixFactory, config),
+					isDilated() ? ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) convolutionalAxonWeights)
+							.im2ColConv(matrixFactory, imageAct) : imageAct.im2ColConv(matrixFactory, config),
 					ImageNeuronsActivationFormat.ML4J_IM_TO_COL_CONV_FORMAT);
 			if (!imageAct.isImmutable()) {
 				imageAct.close();
@@ -126,26 +218,141 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 
 		leftNeuronsActivation.setImmutable(true);
 
-		NeuronsActivation output = convolutionalAxonWeights.applyToLeftToRightInput(leftNeuronsActivation.dup(), axonsContext);
-		
-		Supplier<NeuronsActivation> reformattedSupplier = () -> reformatLeftToRightInput(axonsContext.getMatrixFactory(),
-				leftNeuronsActivation);
+		NeuronsActivation output = convolutionalAxonWeights.applyToLeftToRightInput(leftNeuronsActivation, axonsContext);
+
+		// The input itself, rather than its im2col matrix, is retained for the weights gradient
+		return new AxonsActivationImpl(this, null, () -> leftNeuronsActivation, output);
+	}
 
-		if (!leftNeuronsActivation.isImmutable()) {
-			leftNeuronsActivation.close();
+	/**
+	 * Computes the gradient of the connection weights, summed over the examples, without expanding the input into
+	 * an im2col matrix.
+	 * 
+	 * @param leftNeuronsActivation The input which was propagated left to right.
+	 * @param rightNeuronsGradient The gradient with respect to the output of these axons.
+	 * @param axonsContext The axons context.
+	 * @return The gradient, in the layout of the connection weights.
+	 */
+	public Matrix getConnectionWeightsGradient(NeuronsActivation leftNeuronsActivation,
+			NeuronsActivation rightNeuronsGradient, AxonsContext axonsContext) {
+		if (!(convolutionalAxonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl)) {
+			throw new UnsupportedOperationException("Weights gradient requires low-memory convolutional weights");
 		}
+		return ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) convolutionalAxonWeights)
+				.getConnectionWeightsGradient(leftNeuronsActivation, rightNeuronsGradient, axonsContext);
+	}
 
-		return new AxonsActivationImpl(this, null, reformattedSupplier, output);
+	private boolean isDilated() {
+		return getOptions().isDilated();
 	}
 
+	/**
+	 * Propagates the input through these axons asynchronously on the configured executor.
+	 * 
+	 * The propagation does not modify the input or the weights, so the forward propagation of several 
+	 * micro-batches may run concurrently - weight adjustments must not run concurrently with propagation.
+	 * 
+	 * @param leftNeuronsActivation The input.
+	 * @param previousRightToLeftActivation The previous right to left activation, if any.
+	 * @param axonsContext The axons context.
+	 * @return A future of the activation returned by pushLeftToRight.
+	 */
+	public CompletableFuture<AxonsActivation> pushLeftToRightAsync(NeuronsActivation leftNeuronsActivation,
+			AxonsActivation previousRightToLeftActivation, AxonsContext axonsContext) {
+		return CompletableFuture.supplyAsync(
+				() -> pushLeftToRight(leftNeuronsActivation, previousRightToLeftActivation, axonsContext),
+				getExecutor());
+	}
+
+	/**
+	 * Propagates the input through these axons asynchronously on the configured executor once the input is 
+	 * available, so that the propagation of consecutive layers can be chained without blocking.
+	 * 
+	 * @param leftNeuronsActivation A future of the input, such as the output of the layer before.
+	 * @param axonsContext The axons context.
+	 * @return A future of the activation returned by pushLeftToRight.
+	 */
+	public CompletableFuture<AxonsActivation> pushLeftToRightAsync(
+			CompletableFuture<NeuronsActivation> leftNeuronsActivation, AxonsContext axonsContext) {
+		return leftNeuronsActivation.thenApplyAsync(input -> pushLeftToRight(input, null, axonsContext),
+				getExecutor());
+	}
+
+	/**
+	 * Back propagates the gradient through these axons.  When these axons are trainable in the axons context, and 
+	 * the left to right activation of these axons is provided, the weights gradient is computed from the input it 
+	 * retains by getConnectionWeightsGradient, without expanding the input into an im2col matrix, and is returned 
+	 * as the completed weights gradient of the activation.  Otherwise the weights gradient completes with null.
+	 * 
+	 * @param rightNeuronsActivation The gradient with respect to the right neurons.
+	 * @param previousLeftToRightActivation The left to right activation of these axons.
+	 * @param axonsContext The axons context.
+	 * @return The activation with the input gradient and the weights gradient.
+	 */
 	@Override
-	public AxonsActivation pushRightToLeft(NeuronsActivation rightNeuronsActivation,
+	public DeferredWeightsGradientAxonsActivation pushRightToLeft(NeuronsActivation rightNeuronsActivation,
+			AxonsActivation previousLeftToRightActivation, AxonsContext axonsContext) {
+
+		NeuronsActivation outputGradient = getConvolutionOutputGradient(rightNeuronsActivation,
+				previousLeftToRightActivation, axonsContext);
+		NeuronsActivation output = pushConvolutionOutputGradient(outputGradient, axonsContext);
+		Matrix weightsGradient = isTrainable(axonsContext) && previousLeftToRightActivation != null
+				&& previousLeftToRightActivation.getPostDropoutInput() != null
+						? getConnectionWeightsGradient(previousLeftToRightActivation.getPostDropoutInput().get(),
+								outputGradient, axonsContext)
+						: null;
+		return new DeferredWeightsGradientAxonsActivation(this, () -> outputGradient, output,
+				CompletableFuture.completedFuture(weightsGradient));
+	}
+
+	/**
+	 * Back propagates the gradient through these axons asynchronously on the configured executor, completing as 
+	 * soon as the input gradient is available.  The weights gradient is then computed as a separate task on the 
+	 * executor, so that it overlaps with back propagation through the layers below.  When these axons are not 
+	 * trainable in the axons context (freeze-out), no weights gradient task is scheduled, and the deferred weights 
+	 * gradient completes with null.
+	 * 
+	 * The left and right activations must not be closed until the weights gradient has completed.
+	 * 
+	 * @param rightNeuronsActivation The gradient with respect to the right neurons.
+	 * @param previousLeftToRightActivation The left to right activation of these axons.
+	 * @param leftNeuronsActivation The input which was propagated left to right.
+	 * @param axonsContext The axons context.
+	 * @return A future of the activation with the input gradient, whose weights gradient is deferred.
+	 */
+	public CompletableFuture<DeferredWeightsGradientAxonsActivation> pushRightToLeftAsync(
+			NeuronsActivation rightNeuronsActivation, AxonsActivation previousLeftToRightActivation,
+			NeuronsActivation leftNeuronsActivation, AxonsContext axonsContext) {
+		Executor asyncExecutor = getExecutor();
+		return CompletableFuture.supplyAsync(() -> {
+			NeuronsActivation outputGradient = getConvolutionOutputGradient(rightNeuronsActivation,
+					previousLeftToRightActivation, axonsContext);
+			NeuronsActivation output = pushConvolutionOutputGradient(outputGradient, axonsContext);
+			CompletableFuture<Matrix> weightsGradient = isTrainable(axonsContext)
+					? CompletableFuture.supplyAsync(
+							() -> getConnectionWeightsGradient(leftNeuronsActivation, outputGradient, axonsContext),
+							asyncExecutor)
+					: CompletableFuture.completedFuture(null);
+			return new DeferredWeightsGradientAxonsActivation(this, () -> outputGradient, output,
+					weightsGradient);
+		}, asyncExecutor);
+	}
+
+	/**
+	 * @return The gradient with respect to the output of the convolution, given the gradient with respect to the 
+	 *         right neurons of these axons.
+	 */
+	protected NeuronsActivation getConvolutionOutputGradient(NeuronsActivation rightNeuronsActivation,
 			AxonsActivation previousLeftToRightActivation, AxonsContext axonsContext) {
+		return rightNeuronsActivation;
+	}
 
-		NeuronsActivation output = convolutionalAxonWeights.applyToRightToLeftInput(rightNeuronsActivation, axonsContext);
-		reformatRightToLeftInput(axonsContext.getMatrixFactory(), rightNeuronsActivation);
-		rightNeuronsActivation.setImmutable(true);
-		return new AxonsActivationImpl(this, null, () -> rightNeuronsActivation, output);
+	private NeuronsActivation pushConvolutionOutputGradient(NeuronsActivation outputGradient,
+			AxonsContext axonsContext) {
+		NeuronsActivation output = convolutionalAxonWeights.applyToRightToLeftInput(outputGradient, axonsContext);
+		reformatRightToLeftInput(axonsContext.getMatrixFactory(), outputGradient);
+		outputGradient.setImmutable(true);
+		return output;
 	}
 	
 	public NeuronsActivation reformatRightToLeftInput(MatrixFactory matrixFactory, NeuronsActivation input) {
@@ -164,6 +371,26 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 		return new LowMemorySamePaddingConvolutionalAxonsImpl(config.dup(), convolutionalAxonWeights.dup());
 	}
 
+	/**
+	 * Creates inference-only axons from a snapshot of the current weights, with the kernel and biases prepacked
+	 * and no back propagation bookkeeping - for use when these axons are no longer trained.
+	 * 
+	 * @return The inference axons.
+	 */
+	public ConvolutionalAxons compileForInference() {
+		return new LowMemorySamePaddingConvolutionalInferenceAxonsImpl(config.dup(), convolutionalAxonWeights.dup(),
+				getOptions().dup());
+	}
+
+	/**
+	 * @return The options of the low-memory convolutional weights, or the default options for other weights.
+	 */
+	protected LowMemoryConvolutionOptions getOptions() {
+		return convolutionalAxonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl
+				? ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) convolutionalAxonWeights).getOptions()
+				: new LowMemoryConvolutionOptions();
+	}
+
 	@Override
 	public boolean isTrainable(AxonsContext axonsContext) {
 		return !axonsContext.isWithFreezeOut();
@@ -174,6 +401,13 @@ public class LowMemorySamePaddingConvolutionalAxonsImpl implements Convolutional
 		return convolutionalAxonWeights.dup();
 	}
 
+	/**
+	 * @return The attached axon weights, for checkpointing without a copy of the weights.
+	 */
+	AxonWeights getAxonWeights() {
+		return convolutionalAxonWeights;
+	}
+
 	@Override
 	public Axons3DConfig getConfig() {
 		return config;
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.Optional;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.neurons.ImageNeuronsActivationImpl;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationFeatureOrientation;
+import org.ml4j.nn.neurons.format.ImageNeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.NeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.DimensionScope;
+
+/**
+ * Inference-only variant of LowMemorySamePaddingConvolutionalAxonsImpl for frozen weights.
+ * 
+ * The kernel is packed once on construction, and the biases are expanded once into the values the output is
+ * initialised with, so the GEMMs accumulate directly onto the biases.  The input is neither copied nor modified,
+ * and no state is retained for back propagation - these axons do not support pushRightToLeft or weight adjustment.
+ * 
+ * @author Michael Lavelle
+ *
+ */
+public class LowMemorySamePaddingConvolutionalInferenceAxonsImpl implements ConvolutionalAxons {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	protected Axons3DConfig config;
+	protected AxonWeights convolutionalAxonWeights;
+	protected LowMemoryConvolutionOptions options;
+	protected transient PackedConvolutionKernel packedKernel;
+	protected transient float[] packedBiases;
+
+	/**
+	 * @param config The axons config.
+	 * @param convolutionalAxonWeights The frozen weights - subsequent changes to these weights are not reflected.
+	 * @param options The options determining how the kernel is packed and the convolution is tiled.
+	 */
+	public LowMemorySamePaddingConvolutionalInferenceAxonsImpl(Axons3DConfig config,
+			AxonWeights convolutionalAxonWeights, LowMemoryConvolutionOptions options) {
+		if (!LowMemorySamePaddingConvolutionalAxonsImpl.isEligible(config, options.getDilationWidth(),
+				options.getDilationHeight())) {
+			throw new IllegalArgumentException("Config is not supported by low-memory same padding convolution");
+		}
+		this.config = config;
+		this.convolutionalAxonWeights = convolutionalAxonWeights;
+		this.options = options;
+		pack();
+	}
+
+	private void pack() {
+		Neurons3D leftNeurons = config.getLeftNeurons();
+		Neurons3D rightNeurons = config.getRightNeurons();
+		this.packedKernel = PackedConvolutionKernel.pack(
+				convolutionalAxonWeights.getConnectionWeights().getMatrix().getRowByRowArray(),
+				rightNeurons.getDepth(), leftNeurons.getDepth(), config.getFilterHeight(), config.getFilterWidth(),
+				false, options);
+
+		BiasVector biases = convolutionalAxonWeights.getLeftToRightBiases();
+		if (leftNeurons.hasBiasUnit() && biases != null) {
+			float[] biasData = biases.getVector().getRowByRowArray();
+			int imageSize = rightNeurons.getWidth() * rightNeurons.getHeight();
+			boolean biasPerChannel = biasData.length == rightNeurons.getDepth();
+			this.packedBiases = new float[rightNeurons.getDepth() * imageSize];
+			for (int i = 0; i < packedBiases.length; i++) {
+				packedBiases[i] = biasPerChannel ? biasData[i / imageSize] : biasData[i];
+			}
+		} else {
+			this.packedBiases = null;
+		}
+	}
+
+	private void readObject(java.io.ObjectInputStream inputStream) throws java.io.IOException,
+			ClassNotFoundException {
+		inputStream.defaultReadObject();
+		pack();
+	}
+
+	@Override
+	public AxonsActivation pushLeftToRight(NeuronsActivation leftNeuronsActivation,
+			AxonsActivation previousRightToLeftActivation, AxonsContext axonsContext) {
+
+		MatrixFactory matrixFactory = axonsContext.getMatrixFactory();
+		Neurons3D rightNeurons = config.getRightNeurons();
+		int examples = leftNeuronsActivation.getExampleCount();
+		int width = rightNeurons.getWidth();
+		int height = rightNeurons.getHeight();
+
+		float[] inputData = leftNeuronsActivation.getActivations(matrixFactory).getRowByRowArray();
+		Matrix output = matrixFactory.createMatrix(rightNeurons.getDepth() * width * height, examples);
+		float[] outputData = output.getRowByRowArray();
+
+		if (packedBiases != null) {
+			for (int i = 0; i < packedBiases.length; i++) {
+				float bias = packedBiases[i];
+				int start = i * examples;
+				for (int e = 0; e < examples; e++) {
+					outputData[start + e] = bias;
+				}
+			}
+		}
+
+		ShiftedGemmConvolution.accumulate(packedKernel, options, inputData, outputData, width, height, examples);
+
+		NeuronsActivation outputActivation = new ImageNeuronsActivationImpl(output, rightNeurons,
+				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT, false);
+
+		return new AxonsActivationImpl(this, null, null, outputActivation);
+	}
+
+	@Override
+	public AxonsActivation pushRightToLeft(NeuronsActivation rightNeuronsActivation,
+			AxonsActivation previousLeftToRightActivation, AxonsContext axonsContext) {
+		throw new UnsupportedOperationException("Inference axons do not support back propagation");
+	}
+
+	@Override
+	public void adjustAxonWeights(AxonWeightsAdjustment adjustment,
+			AxonWeightsAdjustmentDirection adjustmentDirection) {
+		throw new UnsupportedOperationException("Inference axons have frozen weights");
+	}
+
+	@Override
+	public Neurons3D getLeftNeurons() {
+		return config.getLeftNeurons();
+	}
+
+	@Override
+	public Neurons3D getRightNeurons() {
+		return config.getRightNeurons();
+	}
+
+	@Override
+	public ConvolutionalAxons dup() {
+		return new LowMemorySamePaddingConvolutionalInferenceAxonsImpl(config.dup(), convolutionalAxonWeights.dup(),
+				options.dup());
+	}
+
+	@Override
+	public boolean isTrainable(AxonsContext axonsContext) {
+		return false;
+	}
+
+	@Override
+	public AxonWeights getDetachedAxonWeights() {
+		return convolutionalAxonWeights.dup();
+	}
+
+	@Override
+	public Axons3DConfig getConfig() {
+		return config;
+	}
+
+	@Override
+	public Optional<NeuronsActivationFormat<?>> optimisedFor() {
+		return convolutionalAxonWeights.optimisedFor();
+	}
+
+	@Override
+	public boolean isSupported(NeuronsActivationFormat<?> format) {
+		return ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT.isEquivalentFormat(format,
+				DimensionScope.INPUT)
+				&& NeuronsActivationFeatureOrientation.ROWS_SPAN_FEATURE_SET.equals(format.getFeatureOrientation());
+	}
+
+	@Override
+	public AxonsType getAxonsType() {
+		return AxonsType.getBaseType(AxonsBaseType.CONVOLUTIONAL);
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.nn.neurons.ImageNeuronsActivationImpl;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.format.ImageNeuronsActivationFormat;
+
+/**
+ * Same padding convolutional axons fused with the max or average pooling axons which follow them.
+ * 
+ * Each pooling window is read directly from the k2r-aa accumulation buffer, so the full resolution convolution
+ * output is never copied out - only the pooled output, and for max pooling the argmax indices needed for back
+ * propagation, are retained.
+ * 
+ * The config of these axons is the convolution config, while the right neurons are the pooled neurons.
+ * 
+ * @author Michael Lavelle
+ *
+ */
+public class LowMemorySamePaddingConvolutionalPoolingAxonsImpl extends LowMemorySamePaddingConvolutionalAxonsImpl {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private Axons3DConfig poolingConfig;
+	private FusedPoolingType poolingType;
+
+	public LowMemorySamePaddingConvolutionalPoolingAxonsImpl(Axons3DConfig config, Axons3DConfig poolingConfig,
+			FusedPoolingType poolingType, AxonWeights convolutionalAxonWeights) {
+		super(config, convolutionalAxonWeights);
+		if (!(convolutionalAxonWeights instanceof LowMemorySamePaddingConvolutionalAxonWeightsImpl)) {
+			throw new IllegalArgumentException(
+					"Fused pooling requires LowMemorySamePaddingConvolutionalAxonWeightsImpl weights");
+		}
+		if (!isEligible(config, poolingConfig)) {
+			throw new IllegalArgumentException("Pooling config is not compatible with the convolution config");
+		}
+		this.poolingConfig = poolingConfig;
+		this.poolingType = poolingType;
+	}
+
+	public LowMemorySamePaddingConvolutionalPoolingAxonsImpl(MatrixFactory matrixFactory, Axons3DConfig config,
+			Axons3DConfig poolingConfig, FusedPoolingType poolingType, WeightsMatrix weightsMatrix,
+			BiasVector biasMatrix) {
+		this(matrixFactory, config, poolingConfig, poolingType, new LowMemoryConvolutionOptions(), weightsMatrix,
+				biasMatrix);
+	}
+
+	public LowMemorySamePaddingConvolutionalPoolingAxonsImpl(MatrixFactory matrixFactory, Axons3DConfig config,
+			Axons3DConfig poolingConfig, FusedPoolingType poolingType, LowMemoryConvolutionOptions options,
+			WeightsMatrix weightsMatrix, BiasVector biasMatrix) {
+		super(matrixFactory, config, options, weightsMatrix, biasMatrix);
+		if (!isEligible(config, poolingConfig)) {
+			throw new IllegalArgumentException("Pooling config is not compatible with the convolution config");
+		}
+		this.poolingConfig = poolingConfig;
+		this.poolingType = poolingType;
+	}
+
+	/**
+	 * @param config The convolution config.
+	 * @param poolingConfig The pooling config.
+	 * @return Whether the convolution and pooling can be fused.
+	 */
+	public static boolean isEligible(Axons3DConfig config, Axons3DConfig poolingConfig) {
+		Neurons3D convolutionOutput = config.getRightNeurons();
+		Neurons3D poolingInput = poolingConfig.getLeftNeurons();
+		Neurons3D poolingOutput = poolingConfig.getRightNeurons();
+		return LowMemorySamePaddingConvolutionalAxonsImpl.isEligible(config)
+				&& convolutionOutput.getWidth() == poolingInput.getWidth()
+				&& convolutionOutput.getHeight() == poolingInput.getHeight()
+				&& convolutionOutput.getDepth() == poolingInput.getDepth()
+				&& poolingOutput.getDepth() == poolingInput.getDepth()
+				&& poolingConfig.getPaddingWidth() == 0 && poolingConfig.getPaddingHeight() == 0
+				&& (poolingOutput.getWidth() - 1) * poolingConfig.getStrideWidth()
+						+ poolingConfig.getFilterWidth() <= poolingInput.getWidth()
+				&& (poolingOutput.getHeight() - 1) * poolingConfig.getStrideHeight()
+						+ poolingConfig.getFilterHeight() <= poolingInput.getHeight();
+	}
+
+	@Override
+	public Neurons3D getRightNeurons() {
+		return poolingConfig.getRightNeurons();
+	}
+
+	public Axons3DConfig getPoolingConfig() {
+		return poolingConfig;
+	}
+
+	public FusedPoolingType getPoolingType() {
+		return poolingType;
+	}
+
+	@Override
+	public AxonsActivation pushLeftToRight(NeuronsActivation leftNeuronsActivation,
+			AxonsActivation previousRightToLeftActivation, AxonsContext axonsContext) {
+
+		leftNeuronsActivation.setImmutable(true);
+
+		Neurons3D pooledNeurons = poolingConfig.getRightNeurons();
+		int[] argMaxIndices = poolingType == FusedPoolingType.MAX
+				? new int[pooledNeurons.getDepth() * pooledNeurons.getWidth() * pooledNeurons.getHeight()
+						* leftNeuronsActivation.getExampleCount()]
+				: null;
+
+		NeuronsActivation output = ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) convolutionalAxonWeights)
+				.applyToLeftToRightInputWithPooling(leftNeuronsActivation, axonsContext, poolingType,
+						poolingConfig, argMaxIndices);
+
+		return new FusedPoolingAxonsActivation(this, () -> leftNeuronsActivation, output, argMaxIndices);
+	}
+
+	@Override
+	protected NeuronsActivation getConvolutionOutputGradient(NeuronsActivation rightNeuronsActivation,
+			AxonsActivation previousLeftToRightActivation, AxonsContext axonsContext) {
+
+		if (poolingType == FusedPoolingType.MAX
+				&& !(previousLeftToRightActivation instanceof FusedPoolingAxonsActivation)) {
+			throw new IllegalArgumentException(
+					"The left to right activation of these axons is required to back propagate through max pooling");
+		}
+		int[] argMaxIndices = poolingType == FusedPoolingType.MAX
+				? ((FusedPoolingAxonsActivation) previousLeftToRightActivation).getArgMaxIndices()
+				: null;
+
+		return unpool(axonsContext.getMatrixFactory(), rightNeuronsActivation, argMaxIndices);
+	}
+
+	/**
+	 * Routes the pooled gradient back to the full resolution convolution output - to the argmax of each window for
+	 * max pooling, or spread evenly over each window for average pooling.
+	 */
+	private NeuronsActivation unpool(MatrixFactory matrixFactory, NeuronsActivation pooledActivation,
+			int[] argMaxIndices) {
+
+		Neurons3D convolutionOutput = config.getRightNeurons();
+		Neurons3D pooledNeurons = poolingConfig.getRightNeurons();
+		int examples = pooledActivation.getExampleCount();
+		int channels = convolutionOutput.getDepth();
+		int width = convolutionOutput.getWidth();
+		int height = convolutionOutput.getHeight();
+		int pooledWidth = pooledNeurons.getWidth();
+		int pooledHeight = pooledNeurons.getHeight();
+
+		float[] pooledData = pooledActivation.getActivations(matrixFactory).getRowByRowArray();
+		Matrix unpooled = matrixFactory.createMatrix(channels * width * height, examples);
+		float[] unpooledData = unpooled.getRowByRowArray();
+
+		if (poolingType == FusedPoolingType.MAX) {
+			for (int i = 0; i < argMaxIndices.length; i++) {
+				unpooledData[argMaxIndices[i]] += pooledData[i];
+			}
+		} else {
+			int filterWidth = poolingConfig.getFilterWidth();
+			int filterHeight = poolingConfig.getFilterHeight();
+			float scale = 1f / (filterWidth * filterHeight);
+			int pooledIndex = 0;
+			for (int c = 0; c < channels; c++) {
+				int channelStart = c * height * width * examples;
+				for (int py = 0; py < pooledHeight; py++) {
+					for (int px = 0; px < pooledWidth; px++) {
+						for (int e = 0; e < examples; e++) {
+							float gradient = pooledData[pooledIndex++] * scale;
+							for (int fy = 0; fy < filterHeight; fy++) {
+								int y = py * poolingConfig.getStrideHeight() + fy;
+								for (int fx = 0; fx < filterWidth; fx++) {
+									int x = px * poolingConfig.getStrideWidth() + fx;
+									unpooledData[channelStart + (y * width + x) * examples + e] += gradient;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return new ImageNeuronsActivationImpl(unpooled, convolutionOutput,
+				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT, false);
+	}
+
+	/**
+	 * Creates inference-only fused axons from a snapshot of the current weights.
+	 * 
+	 * @return The inference axons.
+	 */
+	@Override
+	public ConvolutionalAxons compileForInference() {
+		return new LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl(config.dup(), poolingConfig.dup(),
+				poolingType, convolutionalAxonWeights.dup(), getOptions().dup());
+	}
+
+	@Override
+	public ConvolutionalAxons dup() {
+		return new LowMemorySamePaddingConvolutionalPoolingAxonsImpl(config.dup(), poolingConfig.dup(), poolingType,
+				convolutionalAxonWeights.dup());
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * Inference-only variant of LowMemorySamePaddingConvolutionalPoolingAxonsImpl for frozen weights.
+ * 
+ * The convolution output is pooled tile by tile as for training, using the kernel and biases prepacked by the 
+ * superclass, but no argmax indices are recorded, as these axons do not support back propagation.
+ * 
+ * @author Michael Lavelle
+ *
+ */
+public class LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl
+		extends LowMemorySamePaddingConvolutionalInferenceAxonsImpl {
+
+	/**
+	 * Default serialization id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	private Axons3DConfig poolingConfig;
+	private FusedPoolingType poolingType;
+
+	/**
+	 * @param config The convolution config.
+	 * @param poolingConfig The pooling config.
+	 * @param poolingType The pooling type.
+	 * @param convolutionalAxonWeights The frozen weights - subsequent changes to these weights are not reflected.
+	 * @param options The options determining how the kernel is packed and the convolution is tiled.
+	 */
+	public LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl(Axons3DConfig config,
+			Axons3DConfig poolingConfig, FusedPoolingType poolingType, AxonWeights convolutionalAxonWeights,
+			LowMemoryConvolutionOptions options) {
+		super(config, convolutionalAxonWeights, options);
+		if (!LowMemorySamePaddingConvolutionalPoolingAxonsImpl.isEligible(config, poolingConfig)) {
+			throw new IllegalArgumentException("Pooling config is not compatible with the convolution config");
+		}
+		this.poolingConfig = poolingConfig;
+		this.poolingType = poolingType;
+	}
+
+	@Override
+	public AxonsActivation pushLeftToRight(NeuronsActivation leftNeuronsActivation,
+			AxonsActivation previousRightToLeftActivation, AxonsContext axonsContext) {
+
+		NeuronsActivation output = LowMemorySamePaddingConvolutionalAxonWeightsImpl.convolveWithPooling(packedKernel,
+				options, packedBiases, leftNeuronsActivation, axonsContext, config.getRightNeurons(), poolingType,
+				poolingConfig, null);
+
+		return new AxonsActivationImpl(this, null, null, output);
+	}
+
+	@Override
+	public Neurons3D getRightNeurons() {
+		return poolingConfig.getRightNeurons();
+	}
+
+	public Axons3DConfig getPoolingConfig() {
+		return poolingConfig;
+	}
+
+	public FusedPoolingType getPoolingType() {
+		return poolingType;
+	}
+
+	@Override
+	public ConvolutionalAxons dup() {
+		return new LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl(config.dup(), poolingConfig.dup(),
+				poolingType, convolutionalAxonWeights.dup(), options.dup());
+	}
+}
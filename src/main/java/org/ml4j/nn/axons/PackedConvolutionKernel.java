@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A convolution kernel packed for the k2r-aa method - one contiguous row-major (output channels * input channels)
+ * matrix per kernel tap, each with the channel blocks of that tap which need to be multiplied.
+ * 
+ * For a dense kernel each tap has a single block covering all channels. When packed with sparsity analysis,
+ * all-zero taps have no blocks and the remaining taps are compacted into blocks of contiguous non-zero output
+ * channel rows by contiguous non-zero input channel columns, unless the blocks cover more than the density
+ * threshold of the tap.
+ * 
+ * @author Michael Lavelle
+ */
+public class PackedConvolutionKernel {
+
+	/**
+	 * The maximum number of GEMMs a single tap is split into.
+	 */
+	private static final int MAX_BLOCKS_PER_TAP = 16;
+
+	private float[] data;
+	private int[][] tapBlocks;
+	private int outputChannels;
+	private int inputChannels;
+	private int kernelHeight;
+	private int kernelWidth;
+
+	private PackedConvolutionKernel(float[] data, int[][] tapBlocks, int outputChannels, int inputChannels,
+			int kernelHeight, int kernelWidth) {
+		this.data = data;
+		this.tapBlocks = tapBlocks;
+		this.outputChannels = outputChannels;
+		this.inputChannels = inputChannels;
+		this.kernelHeight = kernelHeight;
+		this.kernelWidth = kernelWidth;
+	}
+
+	/**
+	 * Packs a kernel stored as output channels * (input channels, height, width).
+	 * 
+	 * @param kernel The kernel data.
+	 * @param outputChannels The number of output channels of the kernel.
+	 * @param inputChannels The number of input channels of the kernel.
+	 * @param kernelHeight The kernel height.
+	 * @param kernelWidth The kernel width.
+	 * @param reversed Whether to pack the reversed kernel used to propagate from right to left, in which case the
+	 *                 packed kernel maps the kernel's output channels to its input channels.
+	 * @param options The options determining whether sparsity analysis is performed.
+	 * @return The packed kernel.
+	 */
+	public static PackedConvolutionKernel pack(float[] kernel, int outputChannels, int inputChannels,
+			int kernelHeight, int kernelWidth, boolean reversed, LowMemoryConvolutionOptions options) {
+
+		int taps = kernelHeight * kernelWidth;
+		int packedOutputChannels = reversed ? inputChannels : outputChannels;
+		int packedInputChannels = reversed ? outputChannels : inputChannels;
+		int tapSize = outputChannels * inputChannels;
+
+		float[] data = new float[taps * tapSize];
+		for (int o = 0; o < outputChannels; o++) {
+			for (int i = 0; i < inputChannels; i++) {
+				int kernelStart = (o * inputChannels + i) * taps;
+				for (int t = 0; t < taps; t++) {
+					if (reversed) {
+						data[(taps - 1 - t) * tapSize + i * outputChannels + o] = kernel[kernelStart + t];
+					} else {
+						data[t * tapSize + o * inputChannels + i] = kernel[kernelStart + t];
+					}
+				}
+			}
+		}
+
+		int[][] tapBlocks = new int[taps][];
+		for (int t = 0; t < taps; t++) {
+			tapBlocks[t] = options.isSparseKernels()
+					? getSparseBlocks(data, t * tapSize, packedOutputChannels, packedInputChannels,
+							options.getSparseDensityThreshold())
+					: new int[] { 0, packedOutputChannels, 0, packedInputChannels };
+		}
+		return new PackedConvolutionKernel(data, tapBlocks, packedOutputChannels, packedInputChannels, kernelHeight,
+				kernelWidth);
+	}
+
+	private static int[] getSparseBlocks(float[] data, int offset, int rows, int columns, float densityThreshold) {
+		boolean[] nonZeroRows = new boolean[rows];
+		boolean[] nonZeroColumns = new boolean[columns];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				if (data[offset + r * columns + c] != 0) {
+					nonZeroRows[r] = true;
+					nonZeroColumns[c] = true;
+				}
+			}
+		}
+		List<int[]> rowRuns = getRuns(nonZeroRows);
+		List<int[]> columnRuns = getRuns(nonZeroColumns);
+		if (rowRuns.isEmpty()) {
+			return new int[0];
+		}
+		if (rowRuns.size() * columnRuns.size() > MAX_BLOCKS_PER_TAP) {
+			// Too fragmented to split into separate GEMMs - span the non-zero columns in a single block per row run
+			int[] columnSpan = new int[] { columnRuns.get(0)[0], columnRuns.get(columnRuns.size() - 1)[1] };
+			columnRuns = new ArrayList<>();
+			columnRuns.add(columnSpan);
+		}
+		int area = getLength(rowRuns) * getLength(columnRuns);
+		if (rowRuns.size() * columnRuns.size() > MAX_BLOCKS_PER_TAP
+				|| area > densityThreshold * rows * columns) {
+			return new int[] { 0, rows, 0, columns };
+		}
+		int[] blocks = new int[rowRuns.size() * columnRuns.size() * 4];
+		int index = 0;
+		for (int[] rowRun : rowRuns) {
+			for (int[] columnRun : columnRuns) {
+				blocks[index++] = rowRun[0];
+				blocks[index++] = rowRun[1];
+				blocks[index++] = columnRun[0];
+				blocks[index++] = columnRun[1];
+			}
+		}
+		return blocks;
+	}
+
+	private static List<int[]> getRuns(boolean[] nonZero) {
+		List<int[]> runs = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= nonZero.length; i++) {
+			boolean value = i < nonZero.length && nonZero[i];
+			if (value && start == -1) {
+				start = i;
+			} else if (!value && start != -1) {
+				runs.add(new int[] { start, i });
+				start = -1;
+			}
+		}
+		return runs;
+	}
+
+	private static int getLength(List<int[]> runs) {
+		int length = 0;
+		for (int[] run : runs) {
+			length += run[1] - run[0];
+		}
+		return length;
+	}
+
+	/**
+	 * @return The packed data, with the row-major (output channels * input channels) matrix for tap t starting at
+	 *         getTapOffset(t).
+	 */
+	public float[] getData() {
+		return data;
+	}
+
+	public int getTapOffset(int tap) {
+		return tap * outputChannels * inputChannels;
+	}
+
+	/**
+	 * @param tap The tap index (h * kernelWidth + w).
+	 * @return The blocks of the tap to multiply, as consecutive (startRow, endRow, startColumn, endColumn)
+	 *         quadruples - empty if the tap is entirely zero.
+	 */
+	public int[] getBlocks(int tap) {
+		return tapBlocks[tap];
+	}
+
+	/**
+	 * @return The fraction of the kernel covered by the blocks which are multiplied.
+	 */
+	public float getMultipliedDensity() {
+		long area = 0;
+		for (int[] blocks : tapBlocks) {
+			for (int b = 0; b < blocks.length; b += 4) {
+				area += (long) (blocks[b + 1] - blocks[b]) * (blocks[b + 3] - blocks[b + 2]);
+			}
+		}
+		return ((float) area) / data.length;
+	}
+
+	public int getOutputChannels() {
+		return outputChannels;
+	}
+
+	public int getInputChannels() {
+		return inputChannels;
+	}
+
+	public int getKernelHeight() {
+		return kernelHeight;
+	}
+
+	public int getKernelWidth() {
+		return kernelWidth;
+	}
+}
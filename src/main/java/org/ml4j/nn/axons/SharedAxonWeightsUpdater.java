@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies weight adjustments from several data-parallel worker threads to a single shared set of axon weights, so
+ * that workers can train concurrently without external locking or a copy of the weights per worker.
+ * 
+ * HOGWILD adjustments are applied directly to the shared weights.  ASYNCHRONOUS_STRIPED adjustments are applied to
+ * a thread-local staging buffer, as an adjustment can only be applied through AxonWeights.adjustWeights, and then
+ * added into the shared weights stripe by stripe.  SYNCHRONOUS adjustments are applied to one buffer per worker and
+ * then averaged into the shared weights in a second phase, with each worker reducing its own slice of the weights.
+ * 
+ * @author Michael Lavelle
+ */
+public class SharedAxonWeightsUpdater {
+
+	/**
+	 * The number of weights guarded by each stripe lock.
+	 */
+	private static final int STRIPE_SIZE = 4096;
+
+	private AxonWeights sharedWeights;
+	private SharedWeightsUpdateMode updateMode;
+	private int workerCount;
+	private CyclicBarrier barrier;
+	private Object[][] stripeLocks;
+	private ThreadLocal<AxonWeights> gradientBuffers;
+	private AxonWeights[] workerGradientBuffers;
+	private AtomicInteger workerArrivals;
+
+	/**
+	 * @param sharedWeights The weights shared by all workers.
+	 * @param updateMode The update mode.
+	 * @param workerCount The number of workers - for SYNCHRONOUS updates, each of these workers must adjust the
+	 *                    weights exactly once per step.
+	 */
+	public SharedAxonWeightsUpdater(AxonWeights sharedWeights, SharedWeightsUpdateMode updateMode,
+			int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Worker count must be at least 1");
+		}
+		this.sharedWeights = sharedWeights;
+		this.updateMode = updateMode;
+		this.workerCount = workerCount;
+		if (updateMode == SharedWeightsUpdateMode.SYNCHRONOUS) {
+			this.barrier = new CyclicBarrier(workerCount);
+			this.workerGradientBuffers = new AxonWeights[workerCount];
+			this.workerArrivals = new AtomicInteger();
+		} else if (updateMode == SharedWeightsUpdateMode.ASYNCHRONOUS_STRIPED) {
+			float[][] sharedArrays = getArrays(sharedWeights);
+			this.stripeLocks = new Object[sharedArrays.length][];
+			for (int i = 0; i < sharedArrays.length; i++) {
+				int stripes = sharedArrays[i] == null ? 0
+						: (sharedArrays[i].length + STRIPE_SIZE - 1) / STRIPE_SIZE;
+				stripeLocks[i] = new Object[stripes];
+				for (int s = 0; s < stripes; s++) {
+					stripeLocks[i][s] = new Object();
+				}
+			}
+			this.gradientBuffers = ThreadLocal.withInitial(this::createGradientBuffer);
+		}
+	}
+
+	public SharedWeightsUpdateMode getUpdateMode() {
+		return updateMode;
+	}
+
+	/**
+	 * Applies an adjustment from the calling worker thread to the shared weights.
+	 * 
+	 * For SYNCHRONOUS updates this blocks until every worker has adjusted the weights for the current step, and the
+	 * shared weights are then adjusted by the mean of the workers' adjustments, so that the step is equivalent to a
+	 * single adjustment over the combined mini-batch.  For the other modes each worker's adjustment is applied in
+	 * full.
+	 * 
+	 * @param adjustment The adjustment.
+	 * @param adjustmentDirection The adjustment direction.
+	 */
+	public void adjustWeights(AxonWeightsAdjustment adjustment, AxonWeightsAdjustmentDirection adjustmentDirection) {
+		if (updateMode == SharedWeightsUpdateMode.HOGWILD) {
+			sharedWeights.adjustWeights(adjustment, adjustmentDirection);
+		} else if (updateMode == SharedWeightsUpdateMode.SYNCHRONOUS) {
+			adjustWeightsSynchronously(adjustment, adjustmentDirection);
+		} else {
+			AxonWeights gradientBuffer = gradientBuffers.get();
+			gradientBuffer.adjustWeights(adjustment, adjustmentDirection);
+			float[][] gradientArrays = getArrays(gradientBuffer);
+			float[][] sharedArrays = getArrays(sharedWeights);
+			for (int i = 0; i < sharedArrays.length; i++) {
+				if (sharedArrays[i] != null && gradientArrays[i] != null) {
+					addStriped(gradientArrays[i], sharedArrays[i], stripeLocks[i]);
+				}
+			}
+		}
+	}
+
+	private void adjustWeightsSynchronously(AxonWeightsAdjustment adjustment,
+			AxonWeightsAdjustmentDirection adjustmentDirection) {
+
+		// Every worker arrives exactly once per step, so consecutive arrivals within a step take distinct slots - the
+		// arrival counter wraps at the worker count rather than overflowing, which would repeat or skip slots
+		int worker = workerArrivals.getAndUpdate(arrival -> arrival + 1 == workerCount ? 0 : arrival + 1);
+		if (workerGradientBuffers[worker] == null) {
+			workerGradientBuffers[worker] = createGradientBuffer();
+		}
+		workerGradientBuffers[worker].adjustWeights(adjustment, adjustmentDirection);
+
+		// Phase 1 - wait until every worker's adjustment is in its buffer
+		awaitWorkers();
+
+		// Phase 2 - each worker reduces its own slice of the weights across all of the buffers
+		float[][] sharedArrays = getArrays(sharedWeights);
+		float[][][] bufferArrays = new float[workerCount][][];
+		for (int w = 0; w < workerCount; w++) {
+			bufferArrays[w] = getArrays(workerGradientBuffers[w]);
+		}
+		float scale = 1f / workerCount;
+		for (int i = 0; i < sharedArrays.length; i++) {
+			float[] shared = sharedArrays[i];
+			if (shared != null) {
+				int start = (int) ((long) shared.length * worker / workerCount);
+				int end = (int) ((long) shared.length * (worker + 1) / workerCount);
+				for (int j = start; j < end; j++) {
+					float sum = 0;
+					for (int w = 0; w < workerCount; w++) {
+						float[] buffer = bufferArrays[w][i];
+						sum += buffer[j];
+						buffer[j] = 0f;
+					}
+					shared[j] += sum * scale;
+				}
+			}
+		}
+
+		// Wait until the reduction is complete, so that every worker sees the same weights for the next step
+		awaitWorkers();
+	}
+
+	private void addStriped(float[] gradient, float[] shared, Object[] locks) {
+		if (locks.length == 0) {
+			return;
+		}
+		// Start each worker at a different stripe to reduce contention on the stripe locks
+		int startStripe = (int) (Thread.currentThread().getId() % locks.length);
+		for (int s = 0; s < locks.length; s++) {
+			int stripe = (startStripe + s) % locks.length;
+			int start = stripe * STRIPE_SIZE;
+			int end = Math.min(start + STRIPE_SIZE, shared.length);
+			synchronized (locks[stripe]) {
+				// Clear the staging buffer in the same pass, ready for the next adjustment
+				for (int i = start; i < end; i++) {
+					shared[i] += gradient[i];
+					gradient[i] = 0f;
+				}
+			}
+		}
+	}
+
+	private void awaitWorkers() {
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for other workers to adjust weights", e);
+		} catch (BrokenBarrierException e) {
+			throw new IllegalStateException("Another worker failed while adjusting weights", e);
+		}
+	}
+
+	private AxonWeights createGradientBuffer() {
+		AxonWeights gradientBuffer = sharedWeights.dup();
+		for (float[] array : getArrays(gradientBuffer)) {
+			if (array != null) {
+				Arrays.fill(array, 0f);
+			}
+		}
+		return gradientBuffer;
+	}
+
+	private static float[][] getArrays(AxonWeights axonWeights) {
+		return new float[][] { axonWeights.getConnectionWeights().getMatrix().getRowByRowArray(),
+				axonWeights.getLeftToRightBiases() == null ? null
+						: axonWeights.getLeftToRightBiases().getVector().getRowByRowArray(),
+				axonWeights.getRightToLeftBiases() == null ? null
+						: axonWeights.getRightToLeftBiases().getVector().getRowByRowArray() };
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+/**
+ * How concurrent weight adjustments from data-parallel workers sharing a single set of axon weights are reduced
+ * into those weights.
+ * 
+ * @author Michael Lavelle
+ */
+public enum SharedWeightsUpdateMode {
+
+	/**
+	 * Each worker applies its adjustment to its own buffer and waits until every worker has done so.  The workers
+	 * then adjust the shared weights by the mean of the buffered adjustments, each reducing its own slice of the
+	 * weights, and wait again - equivalent to an all-reduce, with every worker seeing the same weights for the 
+	 * next step.
+	 */
+	SYNCHRONOUS,
+
+	/**
+	 * Each worker adds its whole adjustment into the shared weights stripe by stripe as soon as it is available. No
+	 * adjustments are lost, but workers may see weights which include only some of the other workers' adjustments.
+	 */
+	ASYNCHRONOUS_STRIPED,
+
+	/**
+	 * Hogwild-style - each worker adjusts the shared weights directly without any locking, accepting that
+	 * occasional concurrent updates to the same weight may be lost.
+	 */
+	HOGWILD;
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ml4j.nn.axons;
+
+import java.util.stream.IntStream;
+
+import org.ml4j.jblas.JBlasRowMajorMatrixOptimised;
+
+/**
+ * Accumulates the taps of a same padding k2r-aa convolution without modifying the input.
+ * 
+ * Input and target are stored as channels * (height, width, examples).  Each tap is applied as a single GEMM over
+ * the contiguous range of target columns whose shifted input lies within the image.  Within that range, the
+ * columns at the left and right edges of each image row would receive values wrapped around from the adjacent
+ * row - these are saved before the GEMM and restored afterwards, so only the target, and not the (possibly shared)
+ * input, is ever modified.
+ * 
+ * @author Michael Lavelle
+ */
+public final class ShiftedGemmConvolution {
+
+	private ShiftedGemmConvolution() {
+	}
+
+	/**
+	 * @return The size of the scratch array required to accumulate the specified kernel over rows of an image.
+	 */
+	public static int getScratchSize(PackedConvolutionKernel kernel, int width, int rows, int examples,
+			int maxShiftWidth) {
+		return kernel.getOutputChannels() * Math.max(rows - 1, 0) * Math.min(maxShiftWidth, width) * examples;
+	}
+
+	/**
+	 * Accumulates the convolution of the whole image into the target as configured by the options - one tile at a 
+	 * time when tiled execution is enabled, so that all taps are applied to a cache-sized tile before moving on to
+	 * the next, and with the tiles in parallel when parallel tiles are enabled.
+	 * 
+	 * Tiles are blocks of whole image rows where the rows of a tile, including its halo of input rows, fit within 
+	 * the tile cache size.  Otherwise each tile is a range of columns within a single row - contiguous in the 
+	 * (height, width, examples) layout.  The examples of a column are never split, as they are innermost.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param options The options determining the dilation and tiling.
+	 * @param input The input data.
+	 * @param target The target data.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 */
+	public static void accumulate(PackedConvolutionKernel kernel, LowMemoryConvolutionOptions options,
+			float[] input, float[] target, int width, int height, int examples) {
+
+		int tileWidth = options.isTiledExecution() ? getTileWidth(kernel, options, width, height, examples) : width;
+		int tileRows = options.isTiledExecution() ? getTileRows(kernel, options, width, height, examples) : height;
+		int rowTiles = (height + tileRows - 1) / tileRows;
+		int columnTiles = (width + tileWidth - 1) / tileWidth;
+		int maxShiftWidth = options.getDilationWidth() * (kernel.getKernelWidth() / 2);
+
+		IntStream tileIndexes = IntStream.range(0, rowTiles * columnTiles);
+		if (options.isParallelTiles() && rowTiles * columnTiles > 1) {
+			tileIndexes = tileIndexes.parallel();
+		}
+		tileIndexes.forEach(tile -> {
+			if (columnTiles == 1) {
+				int startY = tile * tileRows;
+				int endY = Math.min(height, startY + tileRows);
+				float[] scratch = new float[getScratchSize(kernel, width, endY - startY, examples, maxShiftWidth)];
+				accumulate(kernel, options.getDilationWidth(), options.getDilationHeight(), input, target, width,
+						height, examples, startY, endY, scratch);
+			} else {
+				int y = tile / columnTiles;
+				int startX = (tile % columnTiles) * tileWidth;
+				accumulateColumns(kernel, options.getDilationWidth(), options.getDilationHeight(), input, target,
+						width, height, examples, y, startX, Math.min(width, startX + tileWidth));
+			}
+		});
+	}
+
+	/**
+	 * @return The number of image rows per tile such that the input rows (including the halo rows above and below)
+	 *         and the target rows of a tile fit within the tile cache size of the options - at least 1, even where
+	 *         a single row does not fit, in which case getTileWidth is less than the image width.
+	 */
+	public static int getTileRows(PackedConvolutionKernel kernel, LowMemoryConvolutionOptions options, int width,
+			int height, int examples) {
+		long rowBytes = (long) width * examples * Float.BYTES;
+		long haloRows = (long) (kernel.getKernelHeight() - 1) * options.getDilationHeight();
+		long rowsInCache = options.getTileCacheBytes() / rowBytes;
+		long tileRows = (rowsInCache - haloRows * kernel.getInputChannels())
+				/ (kernel.getInputChannels() + kernel.getOutputChannels());
+		return (int) Math.max(1, Math.min(height, tileRows));
+	}
+
+	/**
+	 * @return The number of columns of an image row per tile - the image width where a tile of at least one whole 
+	 *         row fits within the tile cache size of the options, and otherwise the number of columns of a single
+	 *         row which fit, including the halo columns of the input rows above and below.
+	 */
+	public static int getTileWidth(PackedConvolutionKernel kernel, LowMemoryConvolutionOptions options, int width,
+			int height, int examples) {
+		long columnBytes = (long) examples * Float.BYTES;
+		long haloRows = (long) (kernel.getKernelHeight() - 1) * options.getDilationHeight();
+		long bytesPerColumn = (kernel.getInputChannels() * (haloRows + 1) + kernel.getOutputChannels())
+				* columnBytes;
+		long tileWidth = options.getTileCacheBytes() / bytesPerColumn;
+		return (int) Math.max(1, Math.min(width, tileWidth));
+	}
+
+	/**
+	 * Accumulates all taps of a dilated kernel into the columns between startX and endX of a single target image 
+	 * row.  Each tap is a single GEMM over the contiguous columns whose shifted input lies within the image, so no
+	 * columns are wrapped and no scratch is required.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param dilationWidth The horizontal dilation.
+	 * @param dilationHeight The vertical dilation.
+	 * @param input The input data.
+	 * @param target The target data.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 * @param y The target image row to accumulate.
+	 * @param startX The first target image column to accumulate.
+	 * @param endX The end (exclusive) target image column to accumulate.
+	 */
+	public static void accumulateColumns(PackedConvolutionKernel kernel, int dilationWidth, int dilationHeight,
+			float[] input, float[] target, int width, int height, int examples, int y, int startX, int endX) {
+		int kernelHeight = kernel.getKernelHeight();
+		int kernelWidth = kernel.getKernelWidth();
+		int columns = width * height * examples;
+		int inputChannels = kernel.getInputChannels();
+		float[] kernelData = kernel.getData();
+		for (int h = 0; h < kernelHeight; h++) {
+			int shiftHeight = dilationHeight * (h - kernelHeight / 2);
+			if (y + shiftHeight < 0 || y + shiftHeight >= height) {
+				continue;
+			}
+			for (int w = 0; w < kernelWidth; w++) {
+				int shiftWidth = dilationWidth * (w - kernelWidth / 2);
+				int tap = h * kernelWidth + w;
+				int tapStartX = Math.max(startX, -shiftWidth);
+				int tapEndX = Math.min(endX, width - shiftWidth);
+				if (tapStartX >= tapEndX) {
+					continue;
+				}
+				int start = (y * width + tapStartX) * examples;
+				int inputStart = start + (shiftHeight * width + shiftWidth) * examples;
+				int[] blocks = kernel.getBlocks(tap);
+				int tapOffset = kernel.getTapOffset(tap);
+				for (int b = 0; b < blocks.length; b += 4) {
+					int startOutputChannel = blocks[b];
+					int startInputChannel = blocks[b + 2];
+					JBlasRowMajorMatrixOptimised.gemm(blocks[b + 1] - startOutputChannel,
+							(tapEndX - tapStartX) * examples, blocks[b + 3] - startInputChannel, 1f, kernelData,
+							tapOffset + startOutputChannel * inputChannels + startInputChannel, inputChannels, input,
+							startInputChannel * columns + inputStart, columns, 1f, target,
+							startOutputChannel * columns + start, columns);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accumulates all taps of a kernel into the target rows between startY and endY.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param input The input data.
+	 * @param target The target data.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 * @param startY The first target image row to accumulate.
+	 * @param endY The end (exclusive) target image row to accumulate.
+	 * @param scratch A scratch array of at least getScratchSize(kernel, width, endY - startY, examples, kernel
+	 *                width / 2) floats.
+	 */
+	public static void accumulate(PackedConvolutionKernel kernel, float[] input, float[] target, int width,
+			int height, int examples, int startY, int endY, float[] scratch) {
+		accumulate(kernel, 1, 1, input, target, width, height, examples, startY, endY, scratch);
+	}
+
+	/**
+	 * Accumulates all taps of a dilated kernel into the target rows between startY and endY - each tap is shifted
+	 * by the dilation times its offset from the centre of the kernel.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param dilationWidth The horizontal dilation.
+	 * @param dilationHeight The vertical dilation.
+	 * @param input The input data.
+	 * @param target The target data.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 * @param startY The first target image row to accumulate.
+	 * @param endY The end (exclusive) target image row to accumulate.
+	 * @param scratch A scratch array of at least getScratchSize(kernel, width, endY - startY, examples, 
+	 *                dilationWidth * (kernel width / 2)) floats.
+	 */
+	public static void accumulate(PackedConvolutionKernel kernel, int dilationWidth, int dilationHeight,
+			float[] input, float[] target, int width, int height, int examples, int startY, int endY,
+			float[] scratch) {
+		accumulateRows(kernel, dilationWidth, dilationHeight, input, target, 0, height, width, height, examples,
+				startY, endY, scratch);
+	}
+
+	/**
+	 * Accumulates all taps of a dilated kernel into the target rows between startY and endY, where the target 
+	 * holds only a window of targetRows image rows starting at targetStartY - so that a row tile of the output can
+	 * be accumulated into a tile-sized buffer.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param dilationWidth The horizontal dilation.
+	 * @param dilationHeight The vertical dilation.
+	 * @param input The input data, for the whole image.
+	 * @param target The target data, stored as channels * (targetRows, width, examples).
+	 * @param targetStartY The image row of the first row of the target.
+	 * @param targetRows The number of image rows held by the target for each channel.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 * @param startY The first target image row to accumulate - at least targetStartY.
+	 * @param endY The end (exclusive) target image row to accumulate - at most targetStartY + targetRows.
+	 * @param scratch A scratch array of at least getScratchSize(kernel, width, endY - startY, examples, 
+	 *                dilationWidth * (kernel width / 2)) floats.
+	 */
+	public static void accumulateRows(PackedConvolutionKernel kernel, int dilationWidth, int dilationHeight,
+			float[] input, float[] target, int targetStartY, int targetRows, int width, int height, int examples,
+			int startY, int endY, float[] scratch) {
+		if (startY < targetStartY || endY > targetStartY + targetRows) {
+			throw new IllegalArgumentException("Rows to accumulate lie outside the rows held by the target");
+		}
+		int kernelHeight = kernel.getKernelHeight();
+		int kernelWidth = kernel.getKernelWidth();
+		for (int h = 0; h < kernelHeight; h++) {
+			for (int w = 0; w < kernelWidth; w++) {
+				accumulateTap(kernel, h * kernelWidth + w, dilationHeight * (h - kernelHeight / 2),
+						dilationWidth * (w - kernelWidth / 2), input, target, targetStartY, targetRows, width,
+						height, examples, startY, endY, scratch);
+			}
+		}
+	}
+
+	/**
+	 * Accumulates the gradient of a single tap of a kernel, so that tapGradient(o, i) += sum over y, x and e of 
+	 * outputGradient(o, y, x, e) * input(i, y + shiftHeight, x + shiftWidth, e), where the shifted input lies
+	 * within the image.
+	 * 
+	 * The sum is a GEMM over the valid columns - a single GEMM when the tap has no horizontal shift, and otherwise
+	 * one GEMM per image row, so that no columns wrapped from adjacent rows contribute.
+	 * 
+	 * @param outputGradient The output gradient data, with outputChannels rows.
+	 * @param input The input data, with inputChannels rows.
+	 * @param tapGradient The outputChannels * inputChannels row-major tap gradient.
+	 * @param outputChannels The number of output channels.
+	 * @param inputChannels The number of input channels.
+	 * @param shiftHeight The vertical shift of the input.
+	 * @param shiftWidth The horizontal shift of the input.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 */
+	public static void accumulateTapGradient(float[] outputGradient, float[] input, float[] tapGradient,
+			int outputChannels, int inputChannels, int shiftHeight, int shiftWidth, int width, int height,
+			int examples) {
+
+		int startRow = Math.max(0, -shiftHeight);
+		int endRow = Math.min(height, height - shiftHeight);
+		int startX = Math.max(0, -shiftWidth);
+		int endX = Math.min(width, width - shiftWidth);
+		if (startRow >= endRow || startX >= endX) {
+			return;
+		}
+
+		int columns = width * height * examples;
+		int shift = (shiftHeight * width + shiftWidth) * examples;
+		if (shiftWidth == 0) {
+			int start = startRow * width * examples;
+			int end = endRow * width * examples;
+			JBlasRowMajorMatrixOptimised.gemm(false, true, outputChannels, inputChannels, end - start, 1f,
+					outputGradient, start, columns, input, start + shift, columns, 1f, tapGradient, 0,
+					inputChannels);
+		} else {
+			for (int y = startRow; y < endRow; y++) {
+				int start = (y * width + startX) * examples;
+				int end = (y * width + endX) * examples;
+				JBlasRowMajorMatrixOptimised.gemm(false, true, outputChannels, inputChannels, end - start, 1f,
+						outputGradient, start, columns, input, start + shift, columns, 1f, tapGradient, 0,
+						inputChannels);
+			}
+		}
+	}
+
+	/**
+	 * Accumulates a single tap of a kernel into the target rows between startY and endY, so that 
+	 * target(o, y, x, e) += sum over i of tap(o, i) * input(i, y + shiftHeight, x + shiftWidth, e), where the
+	 * shifted input lies within the image.
+	 * 
+	 * @param kernel The packed kernel.
+	 * @param tap The tap index.
+	 * @param shiftHeight The vertical shift of the input.
+	 * @param shiftWidth The horizontal shift of the input.
+	 * @param input The input data.
+	 * @param target The target data.
+	 * @param width The image width.
+	 * @param height The image height.
+	 * @param examples The number of examples.
+	 * @param startY The first target image row to accumulate.
+	 * @param endY The end (exclusive) target image row to accumulate.
+	 * @param scratch A scratch array of at least getScratchSize(kernel, width, endY - startY, examples, 
+	 *                abs(shiftWidth)) floats.
+	 */
+	public static void accumulateTap(PackedConvolutionKernel kernel, int tap, int shiftHeight, int shiftWidth,
+			float[] input, float[] target, int width, int height, int examples, int startY, int endY,
+			float[] scratch) {
+		accumulateTap(kernel, tap, shiftHeight, shiftWidth, input, target, 0, height, width, height, examples,
+				startY, endY, scratch);
+	}
+
+	private static void accumulateTap(PackedConvolutionKernel kernel, int tap, int shiftHeight, int shiftWidth,
+			float[] input, float[] target, int targetStartY, int targetRows, int width, int height, int examples,
+			int startY, int endY, float[] scratch) {
+
+		int[] blocks = kernel.getBlocks(tap);
+		if (blocks.length == 0) {
+			return;
+		}
+
+		int startRow = Math.max(startY, -shiftHeight);
+		int endRow = Math.min(endY, height - shiftHeight);
+		int startX = Math.max(0, -shiftWidth);
+		int endX = Math.min(width, width - shiftWidth);
+		if (startRow >= endRow || startX >= endX) {
+			return;
+		}
+
+		int columns = width * height * examples;
+		int targetColumns = targetRows * width * examples;
+		int targetBase = targetStartY * width * examples;
+		int start = (startRow * width + startX) * examples;
+		int end = ((endRow - 1) * width + endX) * examples;
+		int inputStart = start + (shiftHeight * width + shiftWidth) * examples;
+
+		// The columns between the end of one row and the start of the next would receive wrapped input
+		int wrappedLength = (width - endX + startX) * examples;
+		int boundaries = wrappedLength == 0 ? 0 : endRow - startRow - 1;
+		int outputChannels = kernel.getOutputChannels();
+		int inputChannels = kernel.getInputChannels();
+
+		int index = 0;
+		for (int o = 0; o < outputChannels; o++) {
+			for (int b = 0; b < boundaries; b++) {
+				int wrappedStart = o * targetColumns + ((startRow + b) * width + endX) * examples - targetBase;
+				System.arraycopy(target, wrappedStart, scratch, index, wrappedLength);
+				index += wrappedLength;
+			}
+		}
+
+		float[] kernelData = kernel.getData();
+		int tapOffset = kernel.getTapOffset(tap);
+		for (int b = 0; b < blocks.length; b += 4) {
+			int startOutputChannel = blocks[b];
+			int endOutputChannel = blocks[b + 1];
+			int startInputChannel = blocks[b + 2];
+			int endInputChannel = blocks[b + 3];
+			JBlasRowMajorMatrixOptimised.gemm(endOutputChannel - startOutputChannel, end - start,
+					endInputChannel - startInputChannel, 1f, kernelData,
+					tapOffset + startOutputChannel * inputChannels + startInputChannel, inputChannels, input,
+					startInputChannel * columns + inputStart, columns, 1f, target,
+					startOutputChannel * targetColumns + start - targetBase, targetColumns);
+		}
+
+		index = 0;
+		for (int o = 0; o < outputChannels; o++) {
+			for (int b = 0; b < boundaries; b++) {
+				int wrappedStart = o * targetColumns + ((startRow + b) * width + endX) * examples - targetBase;
+				System.arraycopy(scratch, index, target, wrappedStart, wrappedLength);
+				index += wrappedLength;
+			}
+		}
+	}
+}
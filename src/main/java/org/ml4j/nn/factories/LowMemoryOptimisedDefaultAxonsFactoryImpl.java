@@ -20,7 +20,10 @@ import org.ml4j.nn.axons.BiasVector;
 import org.ml4j.nn.axons.ConvolutionalAxons;
 import org.ml4j.nn.axons.DefaultConvolutionalAxonsImpl;
 import org.ml4j.nn.axons.DefaultOneByOneConvolutionalAxonsImpl;
+import org.ml4j.nn.axons.FusedPoolingType;
+import org.ml4j.nn.axons.LowMemoryConvolutionOptions;
 import org.ml4j.nn.axons.LowMemorySamePaddingConvolutionalAxonsImpl;
+import org.ml4j.nn.axons.LowMemorySamePaddingConvolutionalPoolingAxonsImpl;
 import org.ml4j.nn.axons.WeightsMatrix;
 
 /**
@@ -35,21 +38,97 @@ public class LowMemoryOptimisedDefaultAxonsFactoryImpl extends DefaultAxonsFacto
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private LowMemoryConvolutionOptions lowMemoryConvolutionOptions;
+
 	public LowMemoryOptimisedDefaultAxonsFactoryImpl(MatrixFactory matrixFactory) {
+		this(matrixFactory, new LowMemoryConvolutionOptions());
+	}
+
+	/**
+	 * @param matrixFactory The matrix factory.
+	 * @param lowMemoryConvolutionOptions The options applied to each low-memory convolutional axons created.
+	 */
+	public LowMemoryOptimisedDefaultAxonsFactoryImpl(MatrixFactory matrixFactory,
+			LowMemoryConvolutionOptions lowMemoryConvolutionOptions) {
 		super(matrixFactory);
+		this.lowMemoryConvolutionOptions = lowMemoryConvolutionOptions;
 	}
 
+	/**
+	 * Creates LowMemorySamePaddingConvolutionalAxonsImpl for eligible same padding configs, falling back to
+	 * DefaultConvolutionalAxonsImpl otherwise.
+	 * 
+	 * For a k * k filter with I input channels, O output channels and C = width * height * examples, the forward
+	 * propagation of DefaultConvolutionalAxonsImpl requires an im2col matrix of k * k * I * C floats plus the 
+	 * output of O * C floats, whereas LowMemorySamePaddingConvolutionalAxonsImpl accumulates directly into the
+	 * output of O * C floats, with only a small workspace for the columns at the edges of each image row.  The
+	 * measured allocation of the low-memory implementation is checked by 
+	 * LowMemorySamePaddingConvolutionalAxonsAllocationTest - see the README for a comparison.
+	 */
 	@Override
 	public ConvolutionalAxons createConvolutionalAxons(
 			Axons3DConfig config, WeightsMatrix connectionWeights, BiasVector biases) {
 	
 		if (DefaultOneByOneConvolutionalAxonsImpl.isEligible(config)) {
 			return new DefaultOneByOneConvolutionalAxonsImpl(this, config, connectionWeights, biases);
-		} else if (config.getFilterHeight() == config.getFilterWidth() && config.getStrideHeight() == 1 && config.getStrideWidth() == 1 && config.getLeftNeurons().getWidth() == config.getRightNeurons().getWidth() && config.getLeftNeurons().getHeight() == config.getRightNeurons().getHeight()){
-			return new LowMemorySamePaddingConvolutionalAxonsImpl(matrixFactory, config, connectionWeights, biases);
+		} else if (LowMemorySamePaddingConvolutionalAxonsImpl.isEligible(config)){
+			return new LowMemorySamePaddingConvolutionalAxonsImpl(matrixFactory, config,
+					lowMemoryConvolutionOptions.dup(), connectionWeights, biases);
 		}
 		else {
 			return new DefaultConvolutionalAxonsImpl(this, config, connectionWeights, biases);
 		}
 	}
+	
+	/**
+	 * Creates dilated (atrous) convolutional axons, for a filter whose taps read input positions dilationWidth
+	 * columns and dilationHeight rows apart.
+	 * 
+	 * Same padding dilated configs - those whose padding preserves the image size for the dilated filter - are
+	 * created as LowMemorySamePaddingConvolutionalAxonsImpl, which shifts each tap by the dilation times its offset
+	 * so that the receptive field grows without the k * k expansion of the input required by im2col.
+	 * 
+	 * Forward and backward propagation never expand the input, but the standard training path still computes the
+	 * weights gradient from the im2col matrix supplied by the left to right activation - to train without it, 
+	 * compute the gradient with LowMemorySamePaddingConvolutionalAxonsImpl.getConnectionWeightsGradient.
+	 * 
+	 * @param config The convolution config, with the filter size in taps and the padding for the dilated filter.
+	 * @param dilationWidth The horizontal dilation.
+	 * @param dilationHeight The vertical dilation.
+	 * @param connectionWeights The convolution weights.
+	 * @param biases The convolution biases.
+	 * @return The dilated convolutional axons.
+	 */
+	public ConvolutionalAxons createDilatedConvolutionalAxons(Axons3DConfig config, int dilationWidth,
+			int dilationHeight, WeightsMatrix connectionWeights, BiasVector biases) {
+		if (dilationWidth == 1 && dilationHeight == 1) {
+			return createConvolutionalAxons(config, connectionWeights, biases);
+		}
+		if (!LowMemorySamePaddingConvolutionalAxonsImpl.isEligible(config, dilationWidth, dilationHeight)) {
+			throw new IllegalArgumentException("Dilated convolution is only supported for same padding configs");
+		}
+		return new LowMemorySamePaddingConvolutionalAxonsImpl(matrixFactory, config,
+				lowMemoryConvolutionOptions.dup().withDilation(dilationWidth, dilationHeight), connectionWeights,
+				biases);
+	}
+
+	/**
+	 * Creates convolutional axons which pool their output in the same pass, avoiding materialising the full 
+	 * resolution convolution output.
+	 * 
+	 * @param config The convolution config.
+	 * @param poolingConfig The config of the pooling axons which would otherwise follow the convolution.
+	 * @param poolingType The type of pooling.
+	 * @param connectionWeights The convolution weights.
+	 * @param biases The convolution biases.
+	 * @return The fused convolution and pooling axons.
+	 */
+	public ConvolutionalAxons createConvolutionalPoolingAxons(Axons3DConfig config, Axons3DConfig poolingConfig,
+			FusedPoolingType poolingType, WeightsMatrix connectionWeights, BiasVector biases) {
+		if (!LowMemorySamePaddingConvolutionalPoolingAxonsImpl.isEligible(config, poolingConfig)) {
+			throw new IllegalArgumentException("Fused convolution and pooling is not supported for this config");
+		}
+		return new LowMemorySamePaddingConvolutionalPoolingAxonsImpl(matrixFactory, config, poolingConfig,
+				poolingType, lowMemoryConvolutionOptions.dup(), connectionWeights, biases);
+	}
 }
@@ -0,0 +1,253 @@
+package org.ml4j;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the bytes allocated by the calling thread, the peak heap workspace, and the bytes retained on the heap, 
+ * by an operation, and checks them against the baselines recorded in allocation-baselines.properties.
+ * 
+ * Where no baseline has been recorded for an operation, the measurements are instead checked against the 
+ * theoretical memory requirement of the operation, with the same tolerance.
+ * 
+ * Running the tests with -Dml4j.allocation.record=true writes the measurements to
+ * target/allocation-baselines.properties, from where they can be copied to src/test/resources to record new
+ * baselines.
+ * 
+ * @author Michael Lavelle
+ */
+public class AllocationRegressionHarness {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AllocationRegressionHarness.class);
+
+	private static final String BASELINES_RESOURCE = "/allocation-baselines.properties";
+	private static final File RECORDED_BASELINES_FILE = new File("target/allocation-baselines.properties");
+
+	/**
+	 * The fraction by which a measurement may exceed its recorded baseline, or its theoretical requirement when no
+	 * baseline has been recorded.
+	 */
+	private static final double BASELINE_TOLERANCE = 0.1;
+
+	/**
+	 * The fraction by which a retained measurement may exceed its recorded baseline, allowing for the imprecision
+	 * of measuring heap usage.
+	 */
+	private static final double RETAINED_BASELINE_TOLERANCE = 0.25;
+
+	/**
+	 * Allowance for small allocations unrelated to the size of the operation, such as the activation and matrix
+	 * wrappers.
+	 */
+	private static final long SLACK_BYTES = 16 * 1024;
+
+	/**
+	 * Allowance for the imprecision of measuring heap usage after a garbage collection.
+	 */
+	private static final long RETAINED_SLACK_BYTES = 256 * 1024;
+
+	/**
+	 * The fraction by which a peak workspace measurement may exceed its recorded baseline - the peak is summed over 
+	 * the heap pools, so an object promoted by a collection during the operation may be counted in two pools.
+	 */
+	private static final double PEAK_BASELINE_TOLERANCE = 0.25;
+
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+
+	private Properties baselines;
+	private com.sun.management.ThreadMXBean threadMXBean;
+
+	public AllocationRegressionHarness() {
+		this.baselines = new Properties();
+		try (InputStream inputStream = AllocationRegressionHarness.class.getResourceAsStream(BASELINES_RESOURCE)) {
+			if (inputStream != null) {
+				baselines.load(inputStream);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to load allocation baselines", e);
+		}
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Measures the minimum number of bytes allocated by the calling thread over several runs of an operation, after
+	 * warming up.
+	 * 
+	 * @param setup Creates the input for each run of the operation - not included in the measurement.
+	 * @param operation The operation.
+	 * @return The bytes allocated.
+	 */
+	public <T> long measureAllocatedBytes(Supplier<T> setup, Function<T, ?> operation) {
+		long threadId = Thread.currentThread().getId();
+		long minimum = Long.MAX_VALUE;
+		for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+			T input = setup.get();
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			Object result = operation.apply(input);
+			long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+			if (i >= WARMUP_ITERATIONS) {
+				minimum = Math.min(minimum, allocated);
+			}
+			if (result == null) {
+				LOGGER.debug("Operation returned null");
+			}
+		}
+		return minimum;
+	}
+
+	/**
+	 * Measures the number of heap bytes which remain reachable from the result of an operation - the workspace the
+	 * operation retains beyond its own execution.
+	 * 
+	 * @param setup Creates the input to the operation - not included in the measurement.
+	 * @param operation The operation.
+	 * @return The bytes retained.
+	 */
+	public <T> long measureRetainedBytes(Supplier<T> setup, Function<T, ?> operation) {
+		T input = setup.get();
+		long before = getUsedHeapBytesAfterGc();
+		Object result = operation.apply(input);
+		long retained = getUsedHeapBytesAfterGc() - before;
+		if (result == null) {
+			LOGGER.debug("Operation returned null");
+		}
+		return Math.max(0, retained);
+	}
+
+	/**
+	 * Measures the peak number of heap bytes in use during an operation, above those in use before it - the 
+	 * workspace the operation requires at once, including its result and any garbage it creates.
+	 * 
+	 * @param setup Creates the input to the operation - not included in the measurement.
+	 * @param operation The operation.
+	 * @return The peak workspace bytes.
+	 */
+	public <T> long measurePeakWorkspaceBytes(Supplier<T> setup, Function<T, ?> operation) {
+		T input = setup.get();
+		getUsedHeapBytesAfterGc();
+		long before = 0;
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			pool.resetPeakUsage();
+			before += pool.getUsage().getUsed();
+		}
+		Object result = operation.apply(input);
+		long peak = 0;
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		if (result == null) {
+			LOGGER.debug("Operation returned null");
+		}
+		return Math.max(0, peak - before);
+	}
+
+	private List<MemoryPoolMXBean> getHeapPools() {
+		List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		return heapPools;
+	}
+
+	private long getUsedHeapBytesAfterGc() {
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : getHeapPools()) {
+			used += pool.getUsage().getUsed();
+		}
+		return used;
+	}
+
+	/**
+	 * Asserts that the bytes allocated by an operation do not exceed the recorded baseline.
+	 * 
+	 * @param key The key of the operation's baseline.
+	 * @param measuredBytes The measured bytes.
+	 * @param theoreticalBytes The theoretical requirement of the operation, used when no baseline is recorded.
+	 */
+	public void assertAllocatedWithinBaseline(String key, long measuredBytes, long theoreticalBytes) {
+		assertWithinBaseline(key + ".allocated", measuredBytes, theoreticalBytes, BASELINE_TOLERANCE, SLACK_BYTES);
+	}
+
+	/**
+	 * Asserts that the bytes retained by an operation do not exceed the recorded baseline.
+	 * 
+	 * @param key The key of the operation's baseline.
+	 * @param measuredBytes The measured bytes.
+	 * @param theoreticalBytes The theoretical requirement of the operation, used when no baseline is recorded.
+	 */
+	public void assertRetainedWithinBaseline(String key, long measuredBytes, long theoreticalBytes) {
+		assertWithinBaseline(key + ".retained", measuredBytes, theoreticalBytes, RETAINED_BASELINE_TOLERANCE,
+				RETAINED_SLACK_BYTES);
+	}
+
+	/**
+	 * Asserts that the peak workspace of an operation does not exceed the recorded baseline.
+	 * 
+	 * @param key The key of the operation's baseline.
+	 * @param measuredBytes The measured bytes.
+	 * @param theoreticalBytes The theoretical requirement of the operation, used when no baseline is recorded.
+	 */
+	public void assertPeakWithinBaseline(String key, long measuredBytes, long theoreticalBytes) {
+		assertWithinBaseline(key + ".peak", measuredBytes, theoreticalBytes, PEAK_BASELINE_TOLERANCE,
+				RETAINED_SLACK_BYTES);
+	}
+
+	private void assertWithinBaseline(String key, long measuredBytes, long theoreticalBytes, double tolerance,
+			long slackBytes) {
+		String baseline = baselines.getProperty(key);
+		long expectedBytes = baseline == null ? theoreticalBytes : Long.parseLong(baseline.trim());
+		long limit = (long) (expectedBytes * (1 + tolerance)) + slackBytes;
+
+		LOGGER.info(key + ": measured=" + measuredBytes + " theoretical=" + theoreticalBytes + " baseline="
+				+ baseline + " limit=" + limit);
+
+		if (Boolean.getBoolean("ml4j.allocation.record")) {
+			record(key, measuredBytes);
+		}
+
+		Assert.assertTrue(key + " measured " + measuredBytes + " bytes, exceeding the limit of " + limit + " bytes",
+				measuredBytes <= limit);
+	}
+
+	private static synchronized void record(String key, long measuredBytes) {
+		Properties recorded = new Properties();
+		if (RECORDED_BASELINES_FILE.exists()) {
+			try (InputStream inputStream = new FileInputStream(RECORDED_BASELINES_FILE)) {
+				recorded.load(inputStream);
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to load recorded allocation baselines", e);
+			}
+		}
+		recorded.setProperty(key, Long.toString(measuredBytes));
+		RECORDED_BASELINES_FILE.getParentFile().mkdirs();
+		try (OutputStream outputStream = new FileOutputStream(RECORDED_BASELINES_FILE)) {
+			recorded.store(outputStream, "Measured allocation baselines");
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to record allocation baselines", e);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.ml4j.jblas;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.ml4j.AllocationRegressionHarness;
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+
+/**
+ * Checks the memory allocated, the peak heap workspace and the memory retained by JBlasRowMajorMatrixOptimised.mmul 
+ * against recorded baselines, and that the in-place variants do not allocate.
+ * 
+ * @author Michael Lavelle
+ */
+@RunWith(Parameterized.class)
+public class JBlasRowMajorMatrixOptimisedAllocationTest {
+
+	private static final int FLOAT_BYTES = 4;
+
+	@Parameters(name = "{0}x{1} * {1}x{2}")
+	public static Collection<Object[]> shapes() {
+		return Arrays.asList(new Object[][] { { 64, 64, 64 }, { 256, 128, 512 }, { 1, 1024, 1024 } });
+	}
+
+	private int rows;
+	private int inner;
+	private int columns;
+
+	private AllocationRegressionHarness harness;
+	private MatrixFactory matrixFactory;
+
+	public JBlasRowMajorMatrixOptimisedAllocationTest(int rows, int inner, int columns) {
+		this.rows = rows;
+		this.inner = inner;
+		this.columns = columns;
+	}
+
+	@Before
+	public void setUp() {
+		harness = new AllocationRegressionHarness();
+		matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+	}
+
+	@Test
+	public void testMmulAllocation() {
+		Matrix left = matrixFactory.createMatrix(rows, inner);
+		Matrix right = matrixFactory.createMatrix(inner, columns);
+
+		long allocated = harness.measureAllocatedBytes(() -> left, l -> l.mmul(right));
+		long retained = harness.measureRetainedBytes(() -> left, l -> l.mmul(right));
+		long peak = harness.measurePeakWorkspaceBytes(() -> left, l -> l.mmul(right));
+
+		// The result matrix
+		long resultBytes = (long) rows * columns * FLOAT_BYTES;
+
+		String key = "mmul." + rows + "x" + inner + "x" + columns;
+		harness.assertAllocatedWithinBaseline(key, allocated, resultBytes);
+		harness.assertRetainedWithinBaseline(key, retained, resultBytes);
+		harness.assertPeakWithinBaseline(key, peak, resultBytes);
+	}
+
+	@Test
+	public void testMmulIntoAllocation() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) matrixFactory.createMatrix(rows, inner);
+		Matrix right = matrixFactory.createMatrix(inner, columns);
+		Matrix target = matrixFactory.createMatrix(rows, columns);
+
+		long allocated = harness.measureAllocatedBytes(() -> left, l -> l.mmulInto(right, target));
+
+		String key = "mmulInto." + rows + "x" + inner + "x" + columns;
+		harness.assertAllocatedWithinBaseline(key, allocated, 0);
+
+		// The slack of the baseline check exceeds the smaller results, so check no result was allocated
+		long resultBytes = (long) rows * columns * FLOAT_BYTES;
+		Assert.assertTrue(key + " allocated " + allocated + " bytes, enough for a " + resultBytes
+				+ " byte result", allocated < resultBytes);
+	}
+}
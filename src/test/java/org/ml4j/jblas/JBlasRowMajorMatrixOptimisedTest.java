@@ -0,0 +1,133 @@
+package org.ml4j.jblas;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.Matrix;
+
+public class JBlasRowMajorMatrixOptimisedTest {
+
+	private static final float DELTA = 0.0001f;
+
+	private JBlasRowMajorMatrixFactoryOptimised matrixFactory;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+		random = new Random(1);
+	}
+
+	@Test
+	public void testMmul() {
+		Matrix left = createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(4, 5);
+		assertProduct(left, false, right, false, 1f, null, 0f, left.mmul(right));
+	}
+
+	@Test
+	public void testMmulWithTargetOverwritesTarget() {
+		Matrix left = createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(4, 5);
+		Matrix target = createRandomMatrix(3, 5);
+		Matrix result = left.mmul(right, target);
+		Assert.assertSame(target, result);
+		assertProduct(left, false, right, false, 1f, null, 0f, result);
+	}
+
+	@Test
+	public void testMmulInto() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(4, 5);
+		Matrix target = createRandomMatrix(3, 5);
+		assertProduct(left, false, right, false, 1f, null, 0f, left.mmulInto(right, target));
+	}
+
+	@Test
+	public void testMmulAccumulate() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(4, 5);
+		Matrix target = createRandomMatrix(3, 5);
+		Matrix original = target.dup();
+		assertProduct(left, false, right, false, 1f, original, 1f, left.mmulAccumulate(right, target));
+	}
+
+	@Test
+	public void testMmulTransposeLeft() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(4, 3);
+		Matrix right = createRandomMatrix(4, 5);
+		Matrix target = createRandomMatrix(3, 5);
+		assertProduct(left, true, right, false, 1f, null, 0f, left.mmulTransposeLeft(right, target));
+	}
+
+	@Test
+	public void testMmulTransposeRight() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(5, 4);
+		Matrix target = createRandomMatrix(3, 5);
+		assertProduct(left, false, right, true, 1f, null, 0f, left.mmulTransposeRight(right, target));
+	}
+
+	@Test
+	public void testGemm() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 4);
+		Matrix right = createRandomMatrix(4, 5);
+		Matrix target = createRandomMatrix(3, 5);
+		Matrix original = target.dup();
+		assertProduct(left, false, right, false, 0.5f, original, -2f, left.gemm(0.5f, right, -2f, target));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMmulIntoWithMismatchedTarget() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 4);
+		left.mmulInto(createRandomMatrix(4, 5), createRandomMatrix(5, 3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMmulIntoWithTargetSharingOperandData() {
+		JBlasRowMajorMatrixOptimised left = (JBlasRowMajorMatrixOptimised) createRandomMatrix(3, 3);
+		Matrix right = createRandomMatrix(3, 3);
+		// A distinct matrix wrapping the same array as the right operand
+		Matrix target = matrixFactory.createMatrixFromRowsByRowsArray(3, 3, right.getRowByRowArray());
+		left.mmulInto(right, target);
+	}
+
+	private void assertProduct(Matrix left, boolean transposeLeft, Matrix right, boolean transposeRight,
+			float alpha, Matrix original, float beta, Matrix result) {
+		int rows = transposeLeft ? left.getColumns() : left.getRows();
+		int inner = transposeLeft ? left.getRows() : left.getColumns();
+		int columns = transposeRight ? right.getRows() : right.getColumns();
+		Assert.assertEquals(rows, result.getRows());
+		Assert.assertEquals(columns, result.getColumns());
+		float[] leftData = left.getRowByRowArray();
+		float[] rightData = right.getRowByRowArray();
+		float[] resultData = result.getRowByRowArray();
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < columns; c++) {
+				float expected = 0;
+				for (int i = 0; i < inner; i++) {
+					float leftValue = transposeLeft ? leftData[i * left.getColumns() + r]
+							: leftData[r * left.getColumns() + i];
+					float rightValue = transposeRight ? rightData[c * right.getColumns() + i]
+							: rightData[i * right.getColumns() + c];
+					expected += leftValue * rightValue;
+				}
+				expected *= alpha;
+				if (original != null) {
+					expected += beta * original.getRowByRowArray()[r * columns + c];
+				}
+				Assert.assertEquals(expected, resultData[r * columns + c], DELTA);
+			}
+		}
+	}
+
+	private Matrix createRandomMatrix(int rows, int columns) {
+		float[] data = new float[rows * columns];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat() - 0.5f;
+		}
+		return matrixFactory.createMatrixFromRowsByRowsArray(rows, columns, data);
+	}
+}
@@ -0,0 +1,303 @@
+package org.ml4j.nn.axons;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AxonWeightsCheckpointTest {
+
+	private static final int WIDTH = 5;
+	private static final int HEIGHT = 4;
+	private static final int INPUT_CHANNELS = 2;
+	private static final int OUTPUT_CHANNELS = 3;
+	private static final int KERNEL_SIZE = 3;
+
+	private LowMemoryConvolutionTestSupport support;
+	private Path path;
+
+	@Before
+	public void setUp() throws IOException {
+		support = new LowMemoryConvolutionTestSupport();
+		path = Files.createTempFile("axon-weights", ".ckpt");
+		path.toFile().deleteOnExit();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(WIDTH);
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", axons);
+		}
+
+		LowMemorySamePaddingConvolutionalAxonsImpl restored = createAxons(WIDTH);
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			Assert.assertEquals(1, reader.getLayerNames().size());
+			Assert.assertArrayEquals(AxonWeightsCheckpointFormat.getShape(axons), reader.getShape("conv1"));
+			reader.restore("conv1", restored);
+		}
+		assertWeightsEqual(axons, restored);
+	}
+
+	@Test
+	public void testIncrementalAppend() throws IOException {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(WIDTH);
+		LowMemorySamePaddingConvolutionalAxonsImpl other = createAxons(WIDTH);
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv1", axons));
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv2", other));
+			Assert.assertFalse(writer.writeAxonsIfChanged("conv1", axons));
+
+			changeWeights(axons);
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv1", axons));
+			Assert.assertFalse(writer.writeAxonsIfChanged("conv1", axons));
+		}
+		long size = Files.size(path);
+
+		// A reopened writer compares the content digest of the last record of each layer
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			Assert.assertFalse(writer.writeAxonsIfChanged("conv1", axons));
+			Assert.assertFalse(writer.writeAxonsIfChanged("conv2", other));
+		}
+		Assert.assertEquals(size, Files.size(path));
+
+		// A change which restores the written content is not rewritten
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			((LowMemorySamePaddingConvolutionalAxonWeightsImpl) other.getAxonWeights()).weightsChanged();
+			Assert.assertFalse(writer.writeAxonsIfChanged("conv2", other));
+			changeWeights(other);
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv2", other));
+		}
+
+		LowMemorySamePaddingConvolutionalAxonsImpl restored = createAxons(WIDTH);
+		LowMemorySamePaddingConvolutionalAxonsImpl otherRestored = createAxons(WIDTH);
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", restored);
+			reader.restore("conv2", otherRestored);
+		}
+		assertWeightsEqual(axons, restored);
+		assertWeightsEqual(other, otherRestored);
+	}
+
+	@Test
+	public void testUnchangedLayoutIsRewrittenInPlace() throws IOException {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(WIDTH);
+		long size;
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", axons);
+			writer.writeAxons("conv2", createAxons(WIDTH));
+			writer.flush();
+			size = Files.size(path);
+
+			changeWeights(axons);
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv1", axons));
+			writer.writeAxons("conv2", createAxons(WIDTH));
+			writer.flush();
+			Assert.assertEquals(size, Files.size(path));
+		}
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			changeWeights(axons);
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv1", axons));
+		}
+		Assert.assertEquals(size, Files.size(path));
+
+		// A layer whose layout has changed is appended
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv2", createAxons(WIDTH + 1));
+		}
+		Assert.assertTrue(Files.size(path) > size);
+
+		LowMemorySamePaddingConvolutionalAxonsImpl restored = createAxons(WIDTH);
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", restored);
+			reader.restore("conv2", createAxons(WIDTH + 1));
+		}
+		assertWeightsEqual(axons, restored);
+	}
+
+	@Test
+	public void testRecordNotMatchingDigestFailsRestore() throws IOException {
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", createAxons(WIDTH));
+		}
+		// Overwrite the last float of the record, as if a rewrite in place had been interrupted
+		overwriteInt(Files.size(path) - 4, Float.floatToIntBits(12345f));
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", createAxons(WIDTH));
+			Assert.fail("Expected the restore to fail the content digest check");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().contains("digest"));
+		}
+	}
+
+	@Test
+	public void testPartialFileHeaderIsRewritten() throws IOException {
+		Files.write(path, new byte[] { 0x4A, 0x34, 0x4C });
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(WIDTH);
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", axons);
+		}
+		LowMemorySamePaddingConvolutionalAxonsImpl restored = createAxons(WIDTH);
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", restored);
+		}
+		assertWeightsEqual(axons, restored);
+	}
+
+	@Test
+	public void testShortFileWhichIsNotAHeaderIsRejected() throws IOException {
+		Files.write(path, new byte[] { 1, 2, 3 });
+		try {
+			AxonWeightsCheckpointWriter.open(path).close();
+			Assert.fail("Expected a file which is not a checkpoint to be rejected");
+		} catch (IOException e) {
+			Assert.assertEquals("Not an axon weights checkpoint", e.getMessage());
+		}
+		Assert.assertEquals(3, Files.size(path));
+	}
+
+	@Test
+	public void testTruncatedTailIsDiscarded() throws IOException {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(WIDTH);
+		long firstRecordEnd;
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", axons);
+			writer.flush();
+			firstRecordEnd = Files.size(path);
+			writer.writeAxons("conv2", createAxons(WIDTH));
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(path) - 7);
+		}
+
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			Assert.assertEquals(1, reader.getLayerNames().size());
+			Assert.assertTrue(reader.getLayerNames().contains("conv1"));
+		}
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			Assert.assertEquals(firstRecordEnd, Files.size(path));
+			Assert.assertTrue(writer.writeAxonsIfChanged("conv2", axons));
+		}
+
+		LowMemorySamePaddingConvolutionalAxonsImpl restored = createAxons(WIDTH);
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			Assert.assertEquals(2, reader.getLayerNames().size());
+			reader.restore("conv2", restored);
+		}
+		assertWeightsEqual(axons, restored);
+	}
+
+	@Test
+	public void testCorruptRecordMagicFails() throws IOException {
+		long secondRecordStart = writeThreeRecords();
+		long size = Files.size(path);
+		overwriteInt(secondRecordStart, 0);
+
+		assertCorrupt();
+		Assert.assertEquals(size, Files.size(path));
+	}
+
+	@Test
+	public void testNegativeWeightsDimensionFails() throws IOException {
+		long secondRecordStart = writeThreeRecords();
+		long size = Files.size(path);
+		int shapeLength = AxonWeightsCheckpointFormat.getShape(createAxons(WIDTH)).length;
+		// Record magic, name length, single character name, shape length, shape
+		overwriteInt(secondRecordStart + 4 + 2 + 1 + 4 + shapeLength * 4, -1);
+
+		assertCorrupt();
+		Assert.assertEquals(size, Files.size(path));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShapeMismatch() throws IOException {
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", createAxons(WIDTH));
+		}
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", createAxons(WIDTH + 1));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDilationMismatch() throws IOException {
+		LowMemorySamePaddingConvolutionalAxonsImpl dilated = createAxons(WIDTH, 2);
+		Assert.assertEquals(2, AxonWeightsCheckpointFormat.getShape(dilated)[12]);
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("conv1", dilated);
+		}
+		try (AxonWeightsCheckpointReader reader = new AxonWeightsCheckpointReader(path)) {
+			reader.restore("conv1", createAxons(WIDTH, 1));
+		}
+	}
+
+	private long writeThreeRecords() throws IOException {
+		long secondRecordStart;
+		try (AxonWeightsCheckpointWriter writer = AxonWeightsCheckpointWriter.open(path)) {
+			writer.writeAxons("a", createAxons(WIDTH));
+			writer.flush();
+			secondRecordStart = Files.size(path);
+			writer.writeAxons("b", createAxons(WIDTH));
+			writer.writeAxons("c", createAxons(WIDTH));
+		}
+		return secondRecordStart;
+	}
+
+	private void overwriteInt(long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(value);
+			buffer.flip();
+			channel.write(buffer, position);
+		}
+	}
+
+	private void assertCorrupt() {
+		try {
+			new AxonWeightsCheckpointReader(path).close();
+			Assert.fail("Expected a corrupt checkpoint to fail the reader");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Corrupt axon weights checkpoint record"));
+		}
+		try {
+			AxonWeightsCheckpointWriter.open(path).close();
+			Assert.fail("Expected a corrupt checkpoint to fail the writer");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Corrupt axon weights checkpoint record"));
+		}
+	}
+
+	private void changeWeights(LowMemorySamePaddingConvolutionalAxonsImpl axons) {
+		axons.getAxonWeights().getConnectionWeights().getMatrix().getRowByRowArray()[0] += 1;
+		((LowMemorySamePaddingConvolutionalAxonWeightsImpl) axons.getAxonWeights()).weightsChanged();
+	}
+
+	private void assertWeightsEqual(LowMemorySamePaddingConvolutionalAxonsImpl expected,
+			LowMemorySamePaddingConvolutionalAxonsImpl actual) {
+		Assert.assertArrayEquals(expected.getAxonWeights().getConnectionWeights().getMatrix().getRowByRowArray(),
+				actual.getAxonWeights().getConnectionWeights().getMatrix().getRowByRowArray(), 0f);
+		Assert.assertArrayEquals(expected.getAxonWeights().getLeftToRightBiases().getVector().getRowByRowArray(),
+				actual.getAxonWeights().getLeftToRightBiases().getVector().getRowByRowArray(), 0f);
+	}
+
+	private LowMemorySamePaddingConvolutionalAxonsImpl createAxons(int width) {
+		return createAxons(width, 1);
+	}
+
+	private LowMemorySamePaddingConvolutionalAxonsImpl createAxons(int width, int dilation) {
+		return new LowMemorySamePaddingConvolutionalAxonsImpl(support.matrixFactory,
+				support.createConfig(width, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE, dilation, true),
+				new LowMemoryConvolutionOptions().withDilation(dilation, dilation),
+				support.createWeightsMatrix(
+						support.createRandomArray(OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE),
+						OUTPUT_CHANNELS),
+				support.createBiasVector(support.createRandomArray(OUTPUT_CHANNELS)));
+	}
+}
@@ -0,0 +1,209 @@
+package org.ml4j.nn.axons;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactoryOptimised;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.ImageNeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.Dimension;
+import org.mockito.Mockito;
+
+/**
+ * Builders and naive reference implementations shared by the low-memory convolution tests.
+ * 
+ * Images are stored as channels * (height, width, examples), and kernels as outputChannels * (inputChannels, 
+ * kernelHeight, kernelWidth).
+ */
+class LowMemoryConvolutionTestSupport {
+
+	static final float DELTA = 0.0001f;
+
+	final MatrixFactory matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+	final Random random = new Random(1);
+
+	AxonsContext createAxonsContext() {
+		AxonsContext axonsContext = Mockito.mock(AxonsContext.class);
+		Mockito.when(axonsContext.getMatrixFactory()).thenReturn(matrixFactory);
+		return axonsContext;
+	}
+
+	Axons3DConfig createConfig(int width, int height, int inputChannels, int outputChannels, int kernelSize,
+			int dilation, boolean bias) {
+		int padding = dilation * (kernelSize - 1) / 2;
+		return new Axons3DConfig(new Neurons3D(width, height, inputChannels, bias),
+				new Neurons3D(width, height, outputChannels, false)).withFilterWidth(kernelSize)
+						.withFilterHeight(kernelSize).withPaddingWidth(padding).withPaddingHeight(padding)
+						.withStrideWidth(1).withStrideHeight(1);
+	}
+
+	WeightsMatrix createWeightsMatrix(float[] kernel, int outputChannels) {
+		return new WeightsMatrixImpl(
+				matrixFactory.createMatrixFromRowsByRowsArray(outputChannels, kernel.length / outputChannels,
+						kernel.clone()),
+				new WeightsFormatImpl(Arrays.asList(Dimension.OUTPUT_DEPTH),
+						Arrays.asList(Dimension.INPUT_DEPTH, Dimension.FILTER_HEIGHT, Dimension.FILTER_WIDTH),
+						WeightsMatrixOrientation.ROWS_SPAN_OUTPUT_DIMENSIONS));
+	}
+
+	BiasVector createBiasVector(float[] biases) {
+		return biases == null ? null
+				: new BiasVectorImpl(matrixFactory.createMatrixFromRowsByRowsArray(biases.length, 1, biases.clone()),
+						FeaturesVectorFormat.DEFAULT_BIAS_FORMAT);
+	}
+
+	NeuronsActivation createActivation(float[] data, int examples) {
+		Matrix matrix = matrixFactory.createMatrixFromRowsByRowsArray(data.length / examples, examples,
+				data.clone());
+		return new NeuronsActivationImpl(new Neurons(data.length / examples, false), matrix,
+				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT);
+	}
+
+	float[] getData(NeuronsActivation activation) {
+		return activation.getActivations(matrixFactory).getRowByRowArray();
+	}
+
+	float[] createRandomArray(int length) {
+		float[] array = new float[length];
+		for (int i = 0; i < length; i++) {
+			array[i] = random.nextFloat() - 0.5f;
+		}
+		return array;
+	}
+
+	/**
+	 * Prunes a kernel by zeroing the specified taps, and all weights between the specified channels.
+	 */
+	static float[] prune(float[] kernel, int outputChannels, int inputChannels, int taps, int[] zeroTaps,
+			int[] zeroOutputChannels, int[] zeroInputChannels) {
+		float[] pruned = kernel.clone();
+		for (int o = 0; o < outputChannels; o++) {
+			for (int i = 0; i < inputChannels; i++) {
+				for (int t = 0; t < taps; t++) {
+					boolean zero = contains(zeroTaps, t) || contains(zeroOutputChannels, o)
+							|| contains(zeroInputChannels, i);
+					if (zero) {
+						pruned[(o * inputChannels + i) * taps + t] = 0f;
+					}
+				}
+			}
+		}
+		return pruned;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Naive same padding convolution, with an optional per channel or per position bias.
+	 */
+	static float[] convolve(float[] input, float[] kernel, float[] biases, int inputChannels, int outputChannels,
+			int width, int height, int examples, int kernelSize, int dilation) {
+		int columns = width * height * examples;
+		int taps = kernelSize * kernelSize;
+		float[] output = new float[outputChannels * columns];
+		for (int o = 0; o < outputChannels; o++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					for (int e = 0; e < examples; e++) {
+						float sum = 0;
+						if (biases != null) {
+							sum = biases.length == outputChannels ? biases[o]
+									: biases[(o * height + y) * width + x];
+						}
+						for (int i = 0; i < inputChannels; i++) {
+							for (int h = 0; h < kernelSize; h++) {
+								int inputY = y + dilation * (h - kernelSize / 2);
+								for (int w = 0; w < kernelSize; w++) {
+									int inputX = x + dilation * (w - kernelSize / 2);
+									if (inputY >= 0 && inputY < height && inputX >= 0 && inputX < width) {
+										sum += kernel[(o * inputChannels + i) * taps + h * kernelSize + w]
+												* input[i * columns + (inputY * width + inputX) * examples + e];
+									}
+								}
+							}
+						}
+						output[o * columns + (y * width + x) * examples + e] = sum;
+					}
+				}
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Naive transposed same padding convolution - the gradient with respect to the input of convolve.
+	 */
+	static float[] convolveTranspose(float[] outputGradient, float[] kernel, int inputChannels,
+			int outputChannels, int width, int height, int examples, int kernelSize, int dilation) {
+		int columns = width * height * examples;
+		int taps = kernelSize * kernelSize;
+		float[] inputGradient = new float[inputChannels * columns];
+		for (int o = 0; o < outputChannels; o++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					for (int e = 0; e < examples; e++) {
+						float gradient = outputGradient[o * columns + (y * width + x) * examples + e];
+						for (int i = 0; i < inputChannels; i++) {
+							for (int h = 0; h < kernelSize; h++) {
+								int inputY = y + dilation * (h - kernelSize / 2);
+								for (int w = 0; w < kernelSize; w++) {
+									int inputX = x + dilation * (w - kernelSize / 2);
+									if (inputY >= 0 && inputY < height && inputX >= 0 && inputX < width) {
+										inputGradient[i * columns + (inputY * width + inputX) * examples + e] += 
+												kernel[(o * inputChannels + i) * taps + h * kernelSize + w] * gradient;
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		return inputGradient;
+	}
+
+	/**
+	 * Naive weights gradient of convolve, summed over the examples.
+	 */
+	static float[] convolveWeightsGradient(float[] input, float[] outputGradient, int inputChannels,
+			int outputChannels, int width, int height, int examples, int kernelSize, int dilation) {
+		int columns = width * height * examples;
+		int taps = kernelSize * kernelSize;
+		float[] weightsGradient = new float[outputChannels * inputChannels * taps];
+		for (int o = 0; o < outputChannels; o++) {
+			for (int i = 0; i < inputChannels; i++) {
+				for (int h = 0; h < kernelSize; h++) {
+					for (int w = 0; w < kernelSize; w++) {
+						float sum = 0;
+						for (int y = 0; y < height; y++) {
+							int inputY = y + dilation * (h - kernelSize / 2);
+							for (int x = 0; x < width; x++) {
+								int inputX = x + dilation * (w - kernelSize / 2);
+								if (inputY >= 0 && inputY < height && inputX >= 0 && inputX < width) {
+									for (int e = 0; e < examples; e++) {
+										sum += outputGradient[o * columns + (y * width + x) * examples + e]
+												* input[i * columns + (inputY * width + inputX) * examples + e];
+									}
+								}
+							}
+						}
+						weightsGradient[(o * inputChannels + i) * taps + h * kernelSize + w] = sum;
+					}
+				}
+			}
+		}
+		return weightsGradient;
+	}
+}
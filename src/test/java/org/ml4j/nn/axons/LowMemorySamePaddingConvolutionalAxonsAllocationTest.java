@@ -0,0 +1,145 @@
+package org.ml4j.nn.axons;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.ml4j.AllocationRegressionHarness;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactoryOptimised;
+import org.ml4j.nn.neurons.Neurons;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.ml4j.nn.neurons.NeuronsActivationImpl;
+import org.ml4j.nn.neurons.format.ImageNeuronsActivationFormat;
+import org.ml4j.nn.neurons.format.features.Dimension;
+import org.mockito.Mockito;
+
+/**
+ * Checks the memory allocated, the peak heap workspace and the memory retained by a forward and backward step of
+ * LowMemorySamePaddingConvolutionalAxonsImpl against recorded baselines.
+ * 
+ * @author Michael Lavelle
+ */
+@RunWith(Parameterized.class)
+public class LowMemorySamePaddingConvolutionalAxonsAllocationTest {
+
+	private static final int FLOAT_BYTES = 4;
+
+	@Parameters(name = "{0}x{0} {1}->{2} channels, {3} examples")
+	public static Collection<Object[]> shapes() {
+		return Arrays.asList(new Object[][] { { 28, 3, 8, 16 }, { 14, 16, 32, 8 }, { 56, 8, 8, 4 } });
+	}
+
+	private int size;
+	private int inputChannels;
+	private int outputChannels;
+	private int examples;
+
+	private AllocationRegressionHarness harness;
+	private MatrixFactory matrixFactory;
+	private AxonsContext axonsContext;
+	private ConvolutionalAxons axons;
+	private Random random;
+
+	public LowMemorySamePaddingConvolutionalAxonsAllocationTest(int size, int inputChannels, int outputChannels,
+			int examples) {
+		this.size = size;
+		this.inputChannels = inputChannels;
+		this.outputChannels = outputChannels;
+		this.examples = examples;
+	}
+
+	@Before
+	public void setUp() {
+		harness = new AllocationRegressionHarness();
+		matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+		axonsContext = Mockito.mock(AxonsContext.class);
+		Mockito.when(axonsContext.getMatrixFactory()).thenReturn(matrixFactory);
+		random = new Random(1);
+
+		Neurons3D leftNeurons = new Neurons3D(size, size, inputChannels, false);
+		Neurons3D rightNeurons = new Neurons3D(size, size, outputChannels, false);
+		Axons3DConfig config = new Axons3DConfig(leftNeurons, rightNeurons).withFilterWidth(3).withFilterHeight(3)
+				.withPaddingWidth(1).withPaddingHeight(1).withStrideWidth(1).withStrideHeight(1);
+
+		axons = new LowMemorySamePaddingConvolutionalAxonsImpl(matrixFactory, config,
+				new WeightsMatrixImpl(null,
+						new WeightsFormatImpl(Arrays.asList(Dimension.OUTPUT_DEPTH),
+								Arrays.asList(Dimension.INPUT_DEPTH, Dimension.FILTER_HEIGHT,
+										Dimension.FILTER_WIDTH),
+								WeightsMatrixOrientation.ROWS_SPAN_OUTPUT_DIMENSIONS)),
+				null);
+	}
+
+	@Test
+	public void testForwardAllocation() {
+		NeuronsActivation input = createActivation(inputChannels);
+		long allocated = harness.measureAllocatedBytes(() -> input,
+				leftInput -> axons.pushLeftToRight(leftInput, null, axonsContext));
+		long retained = harness.measureRetainedBytes(() -> input,
+				leftInput -> axons.pushLeftToRight(leftInput, null, axonsContext));
+		long peak = harness.measurePeakWorkspaceBytes(() -> input,
+				leftInput -> axons.pushLeftToRight(leftInput, null, axonsContext));
+
+		// The output, which the taps are accumulated into directly, and the saved edge columns
+		long outputBytes = (long) outputChannels * getColumns() * FLOAT_BYTES;
+
+		harness.assertAllocatedWithinBaseline(getKey("forward"), allocated,
+				outputBytes + getEdgeColumnBytes(outputChannels));
+		harness.assertRetainedWithinBaseline(getKey("forward"), retained, outputBytes);
+		harness.assertPeakWithinBaseline(getKey("forward"), peak, outputBytes + getEdgeColumnBytes(outputChannels));
+	}
+
+	@Test
+	public void testBackwardAllocation() {
+		long allocated = harness.measureAllocatedBytes(() -> createActivation(outputChannels),
+				gradient -> axons.pushRightToLeft(gradient, null, axonsContext));
+		long retained = harness.measureRetainedBytes(() -> createActivation(outputChannels),
+				gradient -> axons.pushRightToLeft(gradient, null, axonsContext));
+		long peak = harness.measurePeakWorkspaceBytes(() -> createActivation(outputChannels),
+				gradient -> axons.pushRightToLeft(gradient, null, axonsContext));
+
+		// The output, which the taps are accumulated into directly, and the saved edge columns
+		long outputBytes = (long) inputChannels * getColumns() * FLOAT_BYTES;
+
+		harness.assertAllocatedWithinBaseline(getKey("backward"), allocated,
+				outputBytes + getEdgeColumnBytes(inputChannels));
+		harness.assertRetainedWithinBaseline(getKey("backward"), retained, outputBytes);
+		harness.assertPeakWithinBaseline(getKey("backward"), peak, outputBytes + getEdgeColumnBytes(inputChannels));
+	}
+
+	/**
+	 * @return The workspace saving the edge columns wrapped by a shift of one column, for each image row but the
+	 *         last.
+	 */
+	private long getEdgeColumnBytes(int channels) {
+		return (long) channels * (size - 1) * examples * FLOAT_BYTES;
+	}
+
+	private int getColumns() {
+		return size * size * examples;
+	}
+
+	private String getKey(String step) {
+		return "conv." + size + "x" + size + "." + inputChannels + "-" + outputChannels + ".n" + examples + "."
+				+ step;
+	}
+
+	private NeuronsActivation createActivation(int channels) {
+		int featureCount = channels * size * size;
+		NeuronsActivation activation = new NeuronsActivationImpl(new Neurons(featureCount, false),
+				matrixFactory.createMatrix(featureCount, examples),
+				ImageNeuronsActivationFormat.ML4J_DEFAULT_IMAGE_FORMAT);
+		float[] data = activation.getActivations(matrixFactory).getRowByRowArray();
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextFloat();
+		}
+		return activation;
+	}
+}
@@ -0,0 +1,133 @@
+package org.ml4j.nn.axons;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.neurons.NeuronsActivation;
+import org.mockito.Mockito;
+
+/**
+ * Compares the asynchronous propagation of the low-memory convolutional axons with their synchronous propagation.
+ */
+public class LowMemorySamePaddingConvolutionalAxonsAsyncTest {
+
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 5;
+	private static final int EXAMPLES = 2;
+	private static final int INPUT_CHANNELS = 3;
+	private static final int HIDDEN_CHANNELS = 4;
+	private static final int OUTPUT_CHANNELS = 2;
+	private static final int KERNEL_SIZE = 3;
+
+	private LowMemoryConvolutionTestSupport support;
+	private AxonsContext axonsContext;
+	private float[] input;
+	private float[] outputGradient;
+
+	@Before
+	public void setUp() {
+		support = new LowMemoryConvolutionTestSupport();
+		axonsContext = support.createAxonsContext();
+		input = support.createRandomArray(INPUT_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+		outputGradient = support.createRandomArray(HIDDEN_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+	}
+
+	@Test
+	public void testAsyncPropagationMatchesSync() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(INPUT_CHANNELS, HIDDEN_CHANNELS)
+					.withExecutor(executor);
+
+			float[] expectedOutput = support.getData(axons
+					.pushLeftToRight(support.createActivation(input, EXAMPLES), null, axonsContext)
+					.getPostDropoutOutput());
+			float[] output = support.getData(axons
+					.pushLeftToRightAsync(support.createActivation(input, EXAMPLES), null, axonsContext).get()
+					.getPostDropoutOutput());
+			Assert.assertArrayEquals(expectedOutput, output, 0f);
+
+			float[] expectedInputGradient = support.getData(axons
+					.pushRightToLeft(support.createActivation(outputGradient, EXAMPLES), null, axonsContext)
+					.getPostDropoutOutput());
+			float[] expectedWeightsGradient = axons.getConnectionWeightsGradient(
+					support.createActivation(input, EXAMPLES), support.createActivation(outputGradient, EXAMPLES),
+					axonsContext).getRowByRowArray();
+
+			DeferredWeightsGradientAxonsActivation activation = axons.pushRightToLeftAsync(
+					support.createActivation(outputGradient, EXAMPLES), null,
+					support.createActivation(input, EXAMPLES), axonsContext).get();
+			Assert.assertArrayEquals(expectedInputGradient, support.getData(activation.getPostDropoutOutput()), 0f);
+			Assert.assertArrayEquals(expectedWeightsGradient,
+					activation.getConnectionWeightsGradient().get().getRowByRowArray(), 0f);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testChainedPushLeftToRightAsync() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			LowMemorySamePaddingConvolutionalAxonsImpl first = createAxons(INPUT_CHANNELS, HIDDEN_CHANNELS)
+					.withExecutor(executor);
+			LowMemorySamePaddingConvolutionalAxonsImpl second = createAxons(HIDDEN_CHANNELS, OUTPUT_CHANNELS)
+					.withExecutor(executor);
+
+			NeuronsActivation hidden = first
+					.pushLeftToRight(support.createActivation(input, EXAMPLES), null, axonsContext)
+					.getPostDropoutOutput();
+			float[] expected = support
+					.getData(second.pushLeftToRight(hidden, null, axonsContext).getPostDropoutOutput());
+
+			CompletableFuture<NeuronsActivation> hiddenFuture = first
+					.pushLeftToRightAsync(CompletableFuture.completedFuture(support.createActivation(input, EXAMPLES)),
+							axonsContext)
+					.thenApply(AxonsActivation::getPostDropoutOutput);
+			float[] output = support.getData(
+					second.pushLeftToRightAsync(hiddenFuture, axonsContext).get().getPostDropoutOutput());
+			Assert.assertArrayEquals(expected, output, 0f);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFreezeOutSkipsWeightsGradient() throws Exception {
+		AxonsContext freezeOutContext = support.createAxonsContext();
+		Mockito.when(freezeOutContext.isWithFreezeOut()).thenReturn(true);
+		AtomicInteger tasks = new AtomicInteger();
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(INPUT_CHANNELS, HIDDEN_CHANNELS)
+				.withExecutor(task -> {
+					tasks.incrementAndGet();
+					task.run();
+				});
+
+		float[] expectedInputGradient = support.getData(axons
+				.pushRightToLeft(support.createActivation(outputGradient, EXAMPLES), null, freezeOutContext)
+				.getPostDropoutOutput());
+		DeferredWeightsGradientAxonsActivation activation = axons.pushRightToLeftAsync(
+				support.createActivation(outputGradient, EXAMPLES), null, support.createActivation(input, EXAMPLES),
+				freezeOutContext).get();
+
+		Assert.assertArrayEquals(expectedInputGradient, support.getData(activation.getPostDropoutOutput()), 0f);
+		Assert.assertTrue(activation.getConnectionWeightsGradient().isDone());
+		Assert.assertNull(activation.getConnectionWeightsGradient().get());
+		Assert.assertEquals(1, tasks.get());
+	}
+
+	private LowMemorySamePaddingConvolutionalAxonsImpl createAxons(int inputChannels, int outputChannels) {
+		return new LowMemorySamePaddingConvolutionalAxonsImpl(support.matrixFactory,
+				support.createConfig(WIDTH, HEIGHT, inputChannels, outputChannels, KERNEL_SIZE, 1, false),
+				new LowMemoryConvolutionOptions(),
+				support.createWeightsMatrix(
+						support.createRandomArray(outputChannels * inputChannels * KERNEL_SIZE * KERNEL_SIZE),
+						outputChannels),
+				null);
+	}
+}
@@ -0,0 +1,188 @@
+package org.ml4j.nn.axons;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+/**
+ * Compares the low-memory convolutional axons against naive reference convolutions.
+ */
+public class LowMemorySamePaddingConvolutionalAxonsReferenceTest {
+
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 6;
+	private static final int EXAMPLES = 3;
+	private static final int INPUT_CHANNELS = 3;
+	private static final int OUTPUT_CHANNELS = 5;
+	private static final int KERNEL_SIZE = 3;
+	private static final int TAPS = KERNEL_SIZE * KERNEL_SIZE;
+
+	private LowMemoryConvolutionTestSupport support;
+	private AxonsContext axonsContext;
+	private float[] kernel;
+	private float[] biases;
+	private float[] input;
+	private float[] outputGradient;
+
+	@Before
+	public void setUp() {
+		support = new LowMemoryConvolutionTestSupport();
+		axonsContext = support.createAxonsContext();
+		kernel = support.createRandomArray(OUTPUT_CHANNELS * INPUT_CHANNELS * TAPS);
+		// The training axons add a bias per output neuron
+		biases = support.createRandomArray(OUTPUT_CHANNELS * WIDTH * HEIGHT);
+		input = support.createRandomArray(INPUT_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+		outputGradient = support.createRandomArray(OUTPUT_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+	}
+
+	@Test
+	public void testPushLeftToRight() {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(new LowMemoryConvolutionOptions(), kernel);
+		Assert.assertArrayEquals(convolve(kernel, 1), pushLeftToRight(axons), LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test
+	public void testPushRightToLeftWithDifferentInputAndOutputDepths() {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(new LowMemoryConvolutionOptions(), kernel);
+		Assert.assertArrayEquals(convolveTranspose(kernel, 1), pushRightToLeft(axons),
+				LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test
+	public void testSparseKernelsMatchNaiveConvolutionOnPrunedKernels() {
+		float[] prunedKernel = LowMemoryConvolutionTestSupport.prune(kernel, OUTPUT_CHANNELS, INPUT_CHANNELS, TAPS,
+				new int[] { 1, 5 }, new int[] { 2 }, new int[] { 1 });
+		LowMemoryConvolutionOptions options = new LowMemoryConvolutionOptions().withSparseKernels(true)
+				.withSparseDensityThreshold(0.9f);
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(options, prunedKernel);
+		Assert.assertArrayEquals(convolve(prunedKernel, 1), pushLeftToRight(axons),
+				LowMemoryConvolutionTestSupport.DELTA);
+		Assert.assertArrayEquals(convolveTranspose(prunedKernel, 1), pushRightToLeft(axons),
+				LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test
+	public void testGetConnectionWeightsGradient() {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(new LowMemoryConvolutionOptions(), kernel);
+		Assert.assertArrayEquals(
+				LowMemoryConvolutionTestSupport.convolveWeightsGradient(input, outputGradient, INPUT_CHANNELS,
+						OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, 1),
+				getConnectionWeightsGradient(axons), LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test
+	public void testPushRightToLeftComputesWeightsGradientFromRetainedInput() throws Exception {
+		for (int dilation = 1; dilation <= 2; dilation++) {
+			LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(
+					new LowMemoryConvolutionOptions().withDilation(dilation, dilation), kernel);
+			AxonsActivation leftToRight = axons.pushLeftToRight(support.createActivation(input, EXAMPLES), null,
+					axonsContext);
+			// The left to right activation retains the input rather than its im2col matrix
+			Assert.assertEquals(INPUT_CHANNELS * WIDTH * HEIGHT,
+					leftToRight.getPostDropoutInput().get().getFeatureCount());
+			DeferredWeightsGradientAxonsActivation rightToLeft = axons
+					.pushRightToLeft(support.createActivation(outputGradient, EXAMPLES), leftToRight, axonsContext);
+			Assert.assertArrayEquals(convolveTranspose(kernel, dilation),
+					support.getData(rightToLeft.getPostDropoutOutput()), LowMemoryConvolutionTestSupport.DELTA);
+			Assert.assertArrayEquals(
+					LowMemoryConvolutionTestSupport.convolveWeightsGradient(input, outputGradient, INPUT_CHANNELS,
+							OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, dilation),
+					rightToLeft.getConnectionWeightsGradient().get().getRowByRowArray(),
+					LowMemoryConvolutionTestSupport.DELTA);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDilatedAxonsWithoutSamePaddingAreRejected() {
+		new LowMemorySamePaddingConvolutionalAxonsImpl(support.matrixFactory,
+				support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE, 1, true),
+				new LowMemoryConvolutionOptions().withDilation(2, 2),
+				support.createWeightsMatrix(kernel, OUTPUT_CHANNELS), support.createBiasVector(biases));
+	}
+
+	@Test
+	public void testDilatedPropagation() {
+		for (int dilation = 2; dilation <= 3; dilation++) {
+			LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(
+					new LowMemoryConvolutionOptions().withDilation(dilation, dilation), kernel);
+			Assert.assertArrayEquals(convolve(kernel, dilation), pushLeftToRight(axons),
+					LowMemoryConvolutionTestSupport.DELTA);
+			Assert.assertArrayEquals(convolveTranspose(kernel, dilation), pushRightToLeft(axons),
+					LowMemoryConvolutionTestSupport.DELTA);
+			Assert.assertArrayEquals(
+					LowMemoryConvolutionTestSupport.convolveWeightsGradient(input, outputGradient, INPUT_CHANNELS,
+							OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, dilation),
+					getConnectionWeightsGradient(axons), LowMemoryConvolutionTestSupport.DELTA);
+		}
+	}
+
+	@Test
+	public void testDilatedIm2ColConv() {
+		int dilation = 2;
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(
+				new LowMemoryConvolutionOptions().withDilation(dilation, dilation), kernel);
+		NeuronsActivation im2Col = axons.reformatLeftToRightInput(support.matrixFactory,
+				support.createActivation(input, EXAMPLES));
+		Assert.assertEquals(INPUT_CHANNELS * TAPS, im2Col.getFeatureCount());
+		float[] im2ColData = support.getData(im2Col);
+
+		// Each row holds an input channel shifted by the dilated offset of a tap, with zeros outside the image
+		int columns = WIDTH * HEIGHT * EXAMPLES;
+		Assert.assertEquals(INPUT_CHANNELS * TAPS * columns, im2ColData.length);
+		for (int i = 0; i < INPUT_CHANNELS; i++) {
+			for (int h = 0; h < KERNEL_SIZE; h++) {
+				for (int w = 0; w < KERNEL_SIZE; w++) {
+					int row = (i * KERNEL_SIZE + h) * KERNEL_SIZE + w;
+					for (int y = 0; y < HEIGHT; y++) {
+						int inputY = y + dilation * (h - KERNEL_SIZE / 2);
+						for (int x = 0; x < WIDTH; x++) {
+							int inputX = x + dilation * (w - KERNEL_SIZE / 2);
+							for (int e = 0; e < EXAMPLES; e++) {
+								float expected = inputY >= 0 && inputY < HEIGHT && inputX >= 0 && inputX < WIDTH
+										? input[i * columns + (inputY * WIDTH + inputX) * EXAMPLES + e]
+										: 0f;
+								Assert.assertEquals(expected,
+										im2ColData[row * columns + (y * WIDTH + x) * EXAMPLES + e], 0f);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private LowMemorySamePaddingConvolutionalAxonsImpl createAxons(LowMemoryConvolutionOptions options,
+			float[] kernel) {
+		return new LowMemorySamePaddingConvolutionalAxonsImpl(support.matrixFactory,
+				support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE,
+						options.getDilationHeight(), true),
+				options, support.createWeightsMatrix(kernel, OUTPUT_CHANNELS), support.createBiasVector(biases));
+	}
+
+	private float[] pushLeftToRight(LowMemorySamePaddingConvolutionalAxonsImpl axons) {
+		return support.getData(axons.pushLeftToRight(support.createActivation(input, EXAMPLES), null, axonsContext)
+				.getPostDropoutOutput());
+	}
+
+	private float[] pushRightToLeft(LowMemorySamePaddingConvolutionalAxonsImpl axons) {
+		NeuronsActivation output = axons.pushRightToLeft(support.createActivation(outputGradient, EXAMPLES), null,
+				axonsContext).getPostDropoutOutput();
+		return support.getData(output);
+	}
+
+	private float[] getConnectionWeightsGradient(LowMemorySamePaddingConvolutionalAxonsImpl axons) {
+		return axons.getConnectionWeightsGradient(support.createActivation(input, EXAMPLES),
+				support.createActivation(outputGradient, EXAMPLES), axonsContext).getRowByRowArray();
+	}
+
+	private float[] convolve(float[] kernel, int dilation) {
+		return LowMemoryConvolutionTestSupport.convolve(input, kernel, biases, INPUT_CHANNELS, OUTPUT_CHANNELS,
+				WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, dilation);
+	}
+
+	private float[] convolveTranspose(float[] kernel, int dilation) {
+		return LowMemoryConvolutionTestSupport.convolveTranspose(outputGradient, kernel, INPUT_CHANNELS,
+				OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, dilation);
+	}
+}
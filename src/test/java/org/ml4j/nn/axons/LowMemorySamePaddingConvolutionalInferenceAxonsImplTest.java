@@ -0,0 +1,145 @@
+package org.ml4j.nn.axons;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.neurons.Neurons3D;
+
+public class LowMemorySamePaddingConvolutionalInferenceAxonsImplTest {
+
+	private static final int WIDTH = 8;
+	private static final int HEIGHT = 6;
+	private static final int EXAMPLES = 3;
+	private static final int INPUT_CHANNELS = 3;
+	private static final int OUTPUT_CHANNELS = 4;
+	private static final int KERNEL_SIZE = 3;
+
+	private LowMemoryConvolutionTestSupport support;
+	private AxonsContext axonsContext;
+	private float[] kernel;
+	private float[] input;
+
+	@Before
+	public void setUp() {
+		support = new LowMemoryConvolutionTestSupport();
+		axonsContext = support.createAxonsContext();
+		kernel = support.createRandomArray(OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE);
+		input = support.createRandomArray(INPUT_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+	}
+
+	@Test
+	public void testWithoutBiases() {
+		testCompileForInference(new LowMemoryConvolutionOptions(), null);
+	}
+
+	@Test
+	public void testWithBiasPerChannel() {
+		testCompileForInference(new LowMemoryConvolutionOptions(), support.createRandomArray(OUTPUT_CHANNELS));
+	}
+
+	@Test
+	public void testWithBiasPerPosition() {
+		testCompileForInference(new LowMemoryConvolutionOptions(),
+				support.createRandomArray(OUTPUT_CHANNELS * WIDTH * HEIGHT));
+	}
+
+	@Test
+	public void testDilated() {
+		testCompileForInference(new LowMemoryConvolutionOptions().withDilation(2, 2), null);
+		testCompileForInference(new LowMemoryConvolutionOptions().withDilation(2, 2),
+				support.createRandomArray(OUTPUT_CHANNELS));
+	}
+
+	@Test
+	public void testTiledExecution() {
+		testCompileForInference(new LowMemoryConvolutionOptions().withTiledExecution(true).withTileCacheBytes(1),
+				support.createRandomArray(OUTPUT_CHANNELS));
+		testCompileForInference(new LowMemoryConvolutionOptions().withTiledExecution(true).withParallelTiles(true)
+				.withTileCacheBytes(1).withDilation(2, 2), support.createRandomArray(OUTPUT_CHANNELS));
+	}
+
+	@Test
+	public void testFusedPooling() {
+		for (FusedPoolingType poolingType : FusedPoolingType.values()) {
+			Axons3DConfig poolingConfig = createPoolingConfig();
+			LowMemorySamePaddingConvolutionalAxonsImpl axons = new LowMemorySamePaddingConvolutionalPoolingAxonsImpl(
+					support.matrixFactory,
+					support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE, 1, true),
+					poolingConfig, poolingType, new LowMemoryConvolutionOptions(),
+					support.createWeightsMatrix(kernel, OUTPUT_CHANNELS),
+					support.createBiasVector(support.createRandomArray(OUTPUT_CHANNELS)));
+
+			ConvolutionalAxons inferenceAxons = axons.compileForInference();
+			Assert.assertTrue(inferenceAxons instanceof LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl);
+			Assert.assertEquals(WIDTH / 2, inferenceAxons.getRightNeurons().getWidth());
+			Assert.assertEquals(HEIGHT / 2, inferenceAxons.getRightNeurons().getHeight());
+			Assert.assertArrayEquals(pushLeftToRight(axons), pushLeftToRight(inferenceAxons), 0f);
+		}
+	}
+
+	@Test
+	public void testCompiledAxonsAreDetachedFromTrainingWeights() {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(new LowMemoryConvolutionOptions(), null);
+		ConvolutionalAxons inferenceAxons = axons.compileForInference();
+		float[] expected = pushLeftToRight(axons);
+		axons.getAxonWeights().getConnectionWeights().getMatrix().getRowByRowArray()[0] += 1;
+		Assert.assertArrayEquals(expected, pushLeftToRight(inferenceAxons), 0f);
+		Assert.assertFalse(inferenceAxons.isTrainable(axonsContext));
+	}
+
+	@Test
+	public void testFusedPoolingUsesPrepackedKernelAndBiases() {
+		float[] biases = support.createRandomArray(OUTPUT_CHANNELS * WIDTH * HEIGHT);
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = new LowMemorySamePaddingConvolutionalPoolingAxonsImpl(
+				support.matrixFactory,
+				support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE, 1, true),
+				createPoolingConfig(), FusedPoolingType.MAX, new LowMemoryConvolutionOptions(),
+				support.createWeightsMatrix(kernel, OUTPUT_CHANNELS), support.createBiasVector(biases));
+		LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl inferenceAxons =
+				(LowMemorySamePaddingConvolutionalPoolingInferenceAxonsImpl) axons.compileForInference();
+		float[] expected = pushLeftToRight(axons);
+		Assert.assertArrayEquals(expected, pushLeftToRight(inferenceAxons), LowMemoryConvolutionTestSupport.DELTA);
+
+		// Changes to the weights held by the inference axons are not seen once the kernel and biases are packed
+		inferenceAxons.convolutionalAxonWeights.getConnectionWeights().getMatrix().getRowByRowArray()[0] += 1;
+		inferenceAxons.convolutionalAxonWeights.getLeftToRightBiases().getVector().getRowByRowArray()[0] += 1;
+		Assert.assertArrayEquals(expected, pushLeftToRight(inferenceAxons), LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testPushRightToLeftUnsupported() {
+		ConvolutionalAxons inferenceAxons = createAxons(new LowMemoryConvolutionOptions(), null)
+				.compileForInference();
+		inferenceAxons.pushRightToLeft(support.createActivation(input, EXAMPLES), null, axonsContext);
+	}
+
+	private void testCompileForInference(LowMemoryConvolutionOptions options, float[] biases) {
+		LowMemorySamePaddingConvolutionalAxonsImpl axons = createAxons(options, biases);
+		ConvolutionalAxons inferenceAxons = axons.compileForInference();
+
+		float[] expected = LowMemoryConvolutionTestSupport.convolve(input, kernel, biases, INPUT_CHANNELS,
+				OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, options.getDilationHeight());
+		float[] training = pushLeftToRight(axons);
+		Assert.assertArrayEquals(expected, training, LowMemoryConvolutionTestSupport.DELTA);
+		Assert.assertArrayEquals(training, pushLeftToRight(inferenceAxons), LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	private Axons3DConfig createPoolingConfig() {
+		return new Axons3DConfig(new Neurons3D(WIDTH, HEIGHT, OUTPUT_CHANNELS, false),
+				new Neurons3D(WIDTH / 2, HEIGHT / 2, OUTPUT_CHANNELS, false)).withFilterWidth(2).withFilterHeight(2)
+						.withStrideWidth(2).withStrideHeight(2).withPaddingWidth(0).withPaddingHeight(0);
+	}
+
+	private LowMemorySamePaddingConvolutionalAxonsImpl createAxons(LowMemoryConvolutionOptions options,
+			float[] biases) {
+		return new LowMemorySamePaddingConvolutionalAxonsImpl(support.matrixFactory,
+				support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE,
+						options.getDilationHeight(), biases != null),
+				options, support.createWeightsMatrix(kernel, OUTPUT_CHANNELS), support.createBiasVector(biases));
+	}
+
+	private float[] pushLeftToRight(ConvolutionalAxons axons) {
+		return support.getData(axons.pushLeftToRight(support.createActivation(input, EXAMPLES), null, axonsContext)
+				.getPostDropoutOutput());
+	}
+}
@@ -0,0 +1,178 @@
+package org.ml4j.nn.axons;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.NeuronsActivation;
+
+public class LowMemorySamePaddingConvolutionalPoolingAxonsImplTest {
+
+	private static final int WIDTH = 8;
+	private static final int HEIGHT = 6;
+	private static final int EXAMPLES = 3;
+	private static final int INPUT_CHANNELS = 2;
+	private static final int OUTPUT_CHANNELS = 3;
+	private static final int KERNEL_SIZE = 3;
+	private static final int POOL_SIZE = 2;
+	private static final int POOLED_WIDTH = WIDTH / POOL_SIZE;
+	private static final int POOLED_HEIGHT = HEIGHT / POOL_SIZE;
+
+	private LowMemoryConvolutionTestSupport support;
+	private AxonsContext axonsContext;
+	private float[] kernel;
+	private float[] biases;
+	private float[] input;
+
+	@Before
+	public void setUp() {
+		support = new LowMemoryConvolutionTestSupport();
+		axonsContext = support.createAxonsContext();
+		kernel = support.createRandomArray(OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE);
+		biases = support.createRandomArray(OUTPUT_CHANNELS);
+		input = support.createRandomArray(INPUT_CHANNELS * WIDTH * HEIGHT * EXAMPLES);
+	}
+
+	@Test
+	public void testMaxPoolingMatchesUnfusedConvolutionAndPooling() {
+		testPushLeftToRight(FusedPoolingType.MAX, new LowMemoryConvolutionOptions());
+	}
+
+	@Test
+	public void testAveragePoolingMatchesUnfusedConvolutionAndPooling() {
+		testPushLeftToRight(FusedPoolingType.AVERAGE, new LowMemoryConvolutionOptions());
+	}
+
+	@Test
+	public void testPoolingWithSingleRowTilesMatchesUnfusedConvolutionAndPooling() {
+		// The smallest tile cache size gives a tile per pooled row
+		testPushLeftToRight(FusedPoolingType.MAX, new LowMemoryConvolutionOptions().withTileCacheBytes(1));
+		testPushLeftToRight(FusedPoolingType.AVERAGE, new LowMemoryConvolutionOptions().withTileCacheBytes(1));
+	}
+
+	@Test
+	public void testMaxPoolingArgMaxIndices() {
+		LowMemorySamePaddingConvolutionalPoolingAxonsImpl axons = createAxons(FusedPoolingType.MAX,
+				new LowMemoryConvolutionOptions().withTileCacheBytes(1));
+		FusedPoolingAxonsActivation activation = (FusedPoolingAxonsActivation) axons
+				.pushLeftToRight(support.createActivation(input, EXAMPLES), null, axonsContext);
+
+		float[] convolution = getUnfusedConvolution();
+		float[] pooled = support.getData(activation.getPostDropoutOutput());
+		int[] argMaxIndices = activation.getArgMaxIndices();
+		Assert.assertEquals(pooled.length, argMaxIndices.length);
+		for (int i = 0; i < argMaxIndices.length; i++) {
+			Assert.assertEquals(pooled[i], convolution[argMaxIndices[i]], LowMemoryConvolutionTestSupport.DELTA);
+		}
+		Assert.assertArrayEquals(pool(convolution, FusedPoolingType.MAX), pooled,
+				LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	@Test
+	public void testMaxPoolingPushRightToLeftMatchesUnpooledConvolutionGradient() {
+		testPushRightToLeft(FusedPoolingType.MAX);
+	}
+
+	@Test
+	public void testAveragePoolingPushRightToLeftMatchesUnpooledConvolutionGradient() {
+		testPushRightToLeft(FusedPoolingType.AVERAGE);
+	}
+
+	private void testPushLeftToRight(FusedPoolingType poolingType, LowMemoryConvolutionOptions options) {
+		LowMemorySamePaddingConvolutionalPoolingAxonsImpl axons = createAxons(poolingType, options);
+		NeuronsActivation output = axons.pushLeftToRight(support.createActivation(input, EXAMPLES), null,
+				axonsContext).getPostDropoutOutput();
+		Assert.assertArrayEquals(pool(getUnfusedConvolution(), poolingType), support.getData(output),
+				LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	private void testPushRightToLeft(FusedPoolingType poolingType) {
+		LowMemorySamePaddingConvolutionalPoolingAxonsImpl axons = createAxons(poolingType,
+				new LowMemoryConvolutionOptions());
+		AxonsActivation leftToRight = axons.pushLeftToRight(support.createActivation(input, EXAMPLES), null,
+				axonsContext);
+
+		float[] pooledGradient = support.createRandomArray(OUTPUT_CHANNELS * POOLED_WIDTH * POOLED_HEIGHT * EXAMPLES);
+		NeuronsActivation inputGradient = axons.pushRightToLeft(support.createActivation(pooledGradient, EXAMPLES),
+				leftToRight, axonsContext).getPostDropoutOutput();
+
+		float[] unpooledGradient = unpool(pooledGradient, getUnfusedConvolution(), poolingType);
+		float[] expected = LowMemoryConvolutionTestSupport.convolveTranspose(unpooledGradient, kernel,
+				INPUT_CHANNELS, OUTPUT_CHANNELS, WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, 1);
+		Assert.assertArrayEquals(expected, support.getData(inputGradient), LowMemoryConvolutionTestSupport.DELTA);
+	}
+
+	private LowMemorySamePaddingConvolutionalPoolingAxonsImpl createAxons(FusedPoolingType poolingType,
+			LowMemoryConvolutionOptions options) {
+		Axons3DConfig config = support.createConfig(WIDTH, HEIGHT, INPUT_CHANNELS, OUTPUT_CHANNELS, KERNEL_SIZE, 1,
+				true);
+		Axons3DConfig poolingConfig = new Axons3DConfig(new Neurons3D(WIDTH, HEIGHT, OUTPUT_CHANNELS, false),
+				new Neurons3D(POOLED_WIDTH, POOLED_HEIGHT, OUTPUT_CHANNELS, false)).withFilterWidth(POOL_SIZE)
+						.withFilterHeight(POOL_SIZE).withStrideWidth(POOL_SIZE).withStrideHeight(POOL_SIZE)
+						.withPaddingWidth(0).withPaddingHeight(0);
+		return new LowMemorySamePaddingConvolutionalPoolingAxonsImpl(support.matrixFactory, config, poolingConfig,
+				poolingType, options, support.createWeightsMatrix(kernel, OUTPUT_CHANNELS),
+				support.createBiasVector(biases));
+	}
+
+	private float[] getUnfusedConvolution() {
+		return LowMemoryConvolutionTestSupport.convolve(input, kernel, biases, INPUT_CHANNELS, OUTPUT_CHANNELS,
+				WIDTH, HEIGHT, EXAMPLES, KERNEL_SIZE, 1);
+	}
+
+	private float[] pool(float[] convolution, FusedPoolingType poolingType) {
+		float[] pooled = new float[OUTPUT_CHANNELS * POOLED_WIDTH * POOLED_HEIGHT * EXAMPLES];
+		for (int c = 0; c < OUTPUT_CHANNELS; c++) {
+			for (int py = 0; py < POOLED_HEIGHT; py++) {
+				for (int px = 0; px < POOLED_WIDTH; px++) {
+					for (int e = 0; e < EXAMPLES; e++) {
+						float max = Float.NEGATIVE_INFINITY;
+						float sum = 0;
+						for (int fy = 0; fy < POOL_SIZE; fy++) {
+							for (int fx = 0; fx < POOL_SIZE; fx++) {
+								float value = convolution[getIndex(c, py * POOL_SIZE + fy, px * POOL_SIZE + fx, e)];
+								max = Math.max(max, value);
+								sum += value;
+							}
+						}
+						pooled[((c * POOLED_HEIGHT + py) * POOLED_WIDTH + px) * EXAMPLES + e] =
+								poolingType == FusedPoolingType.MAX ? max : sum / (POOL_SIZE * POOL_SIZE);
+					}
+				}
+			}
+		}
+		return pooled;
+	}
+
+	private float[] unpool(float[] pooledGradient, float[] convolution, FusedPoolingType poolingType) {
+		float[] gradient = new float[convolution.length];
+		for (int c = 0; c < OUTPUT_CHANNELS; c++) {
+			for (int py = 0; py < POOLED_HEIGHT; py++) {
+				for (int px = 0; px < POOLED_WIDTH; px++) {
+					for (int e = 0; e < EXAMPLES; e++) {
+						float pooled = pooledGradient[((c * POOLED_HEIGHT + py) * POOLED_WIDTH + px) * EXAMPLES + e];
+						int argMax = -1;
+						for (int fy = 0; fy < POOL_SIZE; fy++) {
+							for (int fx = 0; fx < POOL_SIZE; fx++) {
+								int index = getIndex(c, py * POOL_SIZE + fy, px * POOL_SIZE + fx, e);
+								if (poolingType == FusedPoolingType.AVERAGE) {
+									gradient[index] += pooled / (POOL_SIZE * POOL_SIZE);
+								} else if (argMax == -1 || convolution[index] > convolution[argMax]) {
+									argMax = index;
+								}
+							}
+						}
+						if (poolingType == FusedPoolingType.MAX) {
+							gradient[argMax] += pooled;
+						}
+					}
+				}
+			}
+		}
+		return gradient;
+	}
+
+	private int getIndex(int channel, int y, int x, int example) {
+		return channel * WIDTH * HEIGHT * EXAMPLES + (y * WIDTH + x) * EXAMPLES + example;
+	}
+}
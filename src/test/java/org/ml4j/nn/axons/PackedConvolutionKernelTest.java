@@ -0,0 +1,176 @@
+package org.ml4j.nn.axons;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedConvolutionKernelTest {
+
+	private static final int KERNEL_SIZE = 3;
+	private static final int TAPS = KERNEL_SIZE * KERNEL_SIZE;
+	private static final int CENTRE_TAP = 4;
+
+	private Random random = new Random(1);
+
+	@Test
+	public void testDensePackingHasSingleBlockPerTap() {
+		PackedConvolutionKernel packed = pack(createKernel(4, 3), 4, 3, false, new LowMemoryConvolutionOptions());
+		for (int t = 0; t < TAPS; t++) {
+			Assert.assertArrayEquals(new int[] { 0, 4, 0, 3 }, packed.getBlocks(t));
+		}
+		Assert.assertEquals(1f, packed.getMultipliedDensity(), 0f);
+	}
+
+	@Test
+	public void testPackingLayout() {
+		float[] kernel = createKernel(4, 3);
+		PackedConvolutionKernel packed = pack(kernel, 4, 3, false, new LowMemoryConvolutionOptions());
+		PackedConvolutionKernel reversed = pack(kernel, 4, 3, true, new LowMemoryConvolutionOptions());
+		Assert.assertEquals(3, reversed.getOutputChannels());
+		Assert.assertEquals(4, reversed.getInputChannels());
+		for (int o = 0; o < 4; o++) {
+			for (int i = 0; i < 3; i++) {
+				for (int t = 0; t < TAPS; t++) {
+					float expected = kernel[(o * 3 + i) * TAPS + t];
+					Assert.assertEquals(expected, packed.getData()[packed.getTapOffset(t) + o * 3 + i], 0f);
+					Assert.assertEquals(expected,
+							reversed.getData()[reversed.getTapOffset(TAPS - 1 - t) + i * 4 + o], 0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSparsePackingSkipsAllZeroTaps() {
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(4, 3), 4, 3, TAPS,
+				new int[] { 0, CENTRE_TAP, 8 }, new int[0], new int[0]);
+		PackedConvolutionKernel packed = pack(kernel, 4, 3, false, createSparseOptions(0.9f));
+		for (int t = 0; t < TAPS; t++) {
+			if (t == 0 || t == CENTRE_TAP || t == 8) {
+				Assert.assertEquals(0, packed.getBlocks(t).length);
+			} else {
+				Assert.assertArrayEquals(new int[] { 0, 4, 0, 3 }, packed.getBlocks(t));
+			}
+		}
+		Assert.assertEquals(6f / 9, packed.getMultipliedDensity(), 0.0001f);
+
+		// The reversed kernel is packed in reverse tap order
+		PackedConvolutionKernel reversed = pack(kernel, 4, 3, true, createSparseOptions(0.9f));
+		Assert.assertEquals(0, reversed.getBlocks(TAPS - 1).length);
+		Assert.assertArrayEquals(new int[] { 0, 3, 0, 4 }, reversed.getBlocks(1));
+	}
+
+	@Test
+	public void testSparsePackingSplitsTapsIntoRowAndColumnBlocks() {
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(4, 4), 4, 4, TAPS, new int[0],
+				new int[] { 1 }, new int[] { 2 });
+		PackedConvolutionKernel packed = pack(kernel, 4, 4, false, createSparseOptions(0.9f));
+		for (int t = 0; t < TAPS; t++) {
+			Assert.assertArrayEquals(new int[] { 0, 1, 0, 2, 0, 1, 3, 4, 2, 4, 0, 2, 2, 4, 3, 4 },
+					packed.getBlocks(t));
+		}
+		Assert.assertEquals(9f / 16, packed.getMultipliedDensity(), 0.0001f);
+
+		// Pruned output channels of the kernel are pruned columns of the reversed kernel
+		PackedConvolutionKernel reversed = pack(kernel, 4, 4, true, createSparseOptions(0.9f));
+		Assert.assertArrayEquals(new int[] { 0, 2, 0, 1, 0, 2, 2, 4, 3, 4, 0, 1, 3, 4, 2, 4 },
+				reversed.getBlocks(0));
+	}
+
+	@Test
+	public void testSparsePackingSpansColumnsOfFragmentedTaps() {
+		// Six row runs by six column runs is more than the maximum number of blocks per tap
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(12, 12), 12, 12, TAPS, new int[0],
+				new int[] { 1, 3, 5, 7, 9, 11 }, new int[] { 1, 3, 5, 7, 9, 11 });
+		PackedConvolutionKernel packed = pack(kernel, 12, 12, false, createSparseOptions(0.9f));
+		int[] blocks = packed.getBlocks(CENTRE_TAP);
+		Assert.assertEquals(6 * 4, blocks.length);
+		for (int b = 0; b < 6; b++) {
+			Assert.assertArrayEquals(new int[] { b * 2, b * 2 + 1, 0, 11 },
+					new int[] { blocks[b * 4], blocks[b * 4 + 1], blocks[b * 4 + 2], blocks[b * 4 + 3] });
+		}
+	}
+
+	@Test
+	public void testSparsePackingFallsBackToDenseForHighlyFragmentedTaps() {
+		// Twenty row runs cannot be split into the maximum number of blocks per tap, even spanning the columns
+		int[] oddChannels = new int[20];
+		for (int i = 0; i < oddChannels.length; i++) {
+			oddChannels[i] = i * 2 + 1;
+		}
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(40, 2), 40, 2, TAPS, new int[0],
+				oddChannels, new int[0]);
+		PackedConvolutionKernel packed = pack(kernel, 40, 2, false, createSparseOptions(0.9f));
+		Assert.assertArrayEquals(new int[] { 0, 40, 0, 2 }, packed.getBlocks(CENTRE_TAP));
+	}
+
+	@Test
+	public void testSparsePackingFallsBackToDenseAboveDensityThreshold() {
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(4, 4), 4, 4, TAPS, new int[0],
+				new int[] { 1 }, new int[0]);
+		Assert.assertArrayEquals(new int[] { 0, 4, 0, 4 },
+				pack(kernel, 4, 4, false, createSparseOptions(0.5f)).getBlocks(CENTRE_TAP));
+		Assert.assertArrayEquals(new int[] { 0, 1, 0, 4, 2, 4, 0, 4 },
+				pack(kernel, 4, 4, false, createSparseOptions(0.8f)).getBlocks(CENTRE_TAP));
+	}
+
+	@Test
+	public void testSparseAccumulateMatchesDenseOnPrunedKernels() {
+		int width = 7;
+		int height = 5;
+		int examples = 2;
+		int outputChannels = 6;
+		int inputChannels = 5;
+		float[] kernel = LowMemoryConvolutionTestSupport.prune(createKernel(outputChannels, inputChannels),
+				outputChannels, inputChannels, TAPS, new int[] { 2, 6 }, new int[] { 1, 4 }, new int[] { 0, 2 });
+		float[] input = createRandomArray(inputChannels * width * height * examples);
+
+		for (boolean reversed : new boolean[] { false, true }) {
+			PackedConvolutionKernel dense = pack(kernel, outputChannels, inputChannels, reversed,
+					new LowMemoryConvolutionOptions());
+			PackedConvolutionKernel sparse = pack(kernel, outputChannels, inputChannels, reversed,
+					createSparseOptions(0.9f));
+			Assert.assertTrue(sparse.getMultipliedDensity() < 0.5f);
+			float[] layerInput = reversed ? createRandomArray(outputChannels * width * height * examples) : input;
+			Assert.assertArrayEquals(accumulate(dense, layerInput, width, height, examples),
+					accumulate(sparse, layerInput, width, height, examples), 0.0001f);
+		}
+	}
+
+	private float[] accumulate(PackedConvolutionKernel kernel, float[] input, int width, int height, int examples) {
+		float[] target = new float[kernel.getOutputChannels() * width * height * examples];
+		float[] scratch = new float[ShiftedGemmConvolution.getScratchSize(kernel, width, height, examples,
+				KERNEL_SIZE / 2)];
+		ShiftedGemmConvolution.accumulate(kernel, 1, 1, input, target, width, height, examples, 0, height, scratch);
+		return target;
+	}
+
+	private PackedConvolutionKernel pack(float[] kernel, int outputChannels, int inputChannels, boolean reversed,
+			LowMemoryConvolutionOptions options) {
+		return PackedConvolutionKernel.pack(kernel, outputChannels, inputChannels, KERNEL_SIZE, KERNEL_SIZE,
+				reversed, options);
+	}
+
+	private LowMemoryConvolutionOptions createSparseOptions(float densityThreshold) {
+		return new LowMemoryConvolutionOptions().withSparseKernels(true)
+				.withSparseDensityThreshold(densityThreshold);
+	}
+
+	private float[] createKernel(int outputChannels, int inputChannels) {
+		float[] kernel = createRandomArray(outputChannels * inputChannels * TAPS);
+		// Avoid any zero weights other than those pruned
+		for (int i = 0; i < kernel.length; i++) {
+			kernel[i] += kernel[i] < 0 ? -0.1f : 0.1f;
+		}
+		return kernel;
+	}
+
+	private float[] createRandomArray(int length) {
+		float[] array = new float[length];
+		for (int i = 0; i < length; i++) {
+			array[i] = random.nextFloat() - 0.5f;
+		}
+		return array;
+	}
+}
@@ -0,0 +1,220 @@
+package org.ml4j.nn.axons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.Matrix;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactoryOptimised;
+import org.mockito.Mockito;
+
+public class SharedAxonWeightsUpdaterTest {
+
+	private static final int WORKERS = 4;
+	private static final int STEPS = 5;
+
+	/**
+	 * Large enough to span several stripe locks.
+	 */
+	private static final int WEIGHT_COUNT = 10000;
+
+	private static final int BIAS_COUNT = 7;
+
+	private MatrixFactory matrixFactory;
+	private Map<AxonWeightsAdjustment, Float> adjustmentDeltas;
+	private AtomicInteger dupCount;
+	private Queue<AxonWeights> duplicates;
+
+	@Before
+	public void setUp() {
+		matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+		adjustmentDeltas = new ConcurrentHashMap<>();
+		dupCount = new AtomicInteger();
+		// Duplicates are created up front, as worker threads should not create and stub mocks
+		duplicates = new ConcurrentLinkedQueue<>();
+		for (int i = 0; i < WORKERS; i++) {
+			duplicates.add(createAxonWeights(0f));
+		}
+	}
+
+	@Test
+	public void testSynchronousUpdatesAreAveragedAndSeenByAllWorkers() throws InterruptedException {
+		AxonWeights sharedWeights = createAxonWeights(1f);
+		SharedAxonWeightsUpdater updater = new SharedAxonWeightsUpdater(sharedWeights,
+				SharedWeightsUpdateMode.SYNCHRONOUS, WORKERS);
+
+		float[][][] observedWeights = new float[STEPS][WORKERS][];
+		runWorkers(true, worker -> {
+			for (int step = 0; step < STEPS; step++) {
+				updater.adjustWeights(createAdjustment(getDelta(worker, step)), null);
+				observedWeights[step][worker] = getWeights(sharedWeights).clone();
+			}
+		});
+
+		float expected = 1f;
+		for (int step = 0; step < STEPS; step++) {
+			float stepSum = 0;
+			for (int worker = 0; worker < WORKERS; worker++) {
+				stepSum += getDelta(worker, step);
+			}
+			expected += stepSum / WORKERS;
+			for (int worker = 0; worker < WORKERS; worker++) {
+				assertAllEqual(expected, observedWeights[step][worker]);
+			}
+		}
+		assertAllEqual(expected, getWeights(sharedWeights));
+		assertAllEqual(expected, getBiases(sharedWeights));
+	}
+
+	@Test
+	public void testAsynchronousStripedUpdatesAreSummed() throws InterruptedException {
+		AxonWeights sharedWeights = createAxonWeights(1f);
+		SharedAxonWeightsUpdater updater = new SharedAxonWeightsUpdater(sharedWeights,
+				SharedWeightsUpdateMode.ASYNCHRONOUS_STRIPED, WORKERS);
+
+		runWorkers(true, worker -> {
+			for (int step = 0; step < STEPS; step++) {
+				updater.adjustWeights(createAdjustment(getDelta(worker, step)), null);
+			}
+		});
+
+		assertAllEqual(1f + getTotalDelta(), getWeights(sharedWeights));
+		assertAllEqual(1f + getTotalDelta(), getBiases(sharedWeights));
+	}
+
+	@Test
+	public void testHogwildUpdatesAreAppliedDirectly() throws InterruptedException {
+		AxonWeights sharedWeights = createAxonWeights(1f);
+		SharedAxonWeightsUpdater updater = new SharedAxonWeightsUpdater(sharedWeights,
+				SharedWeightsUpdateMode.HOGWILD, WORKERS);
+
+		// Workers run one at a time, as concurrent hogwild updates to the same weight may be lost
+		runWorkers(false, worker -> {
+			for (int step = 0; step < STEPS; step++) {
+				updater.adjustWeights(createAdjustment(getDelta(worker, step)), null);
+			}
+		});
+
+		assertAllEqual(1f + getTotalDelta(), getWeights(sharedWeights));
+		Assert.assertEquals(0, dupCount.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidWorkerCount() {
+		new SharedAxonWeightsUpdater(createAxonWeights(0f), SharedWeightsUpdateMode.SYNCHRONOUS, 0);
+	}
+
+	private interface Worker {
+		void run(int worker);
+	}
+
+	private void runWorkers(boolean concurrent, Worker worker) throws InterruptedException {
+		List<Throwable> failures = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int w = 0; w < WORKERS; w++) {
+			final int index = w;
+			Thread thread = new Thread(() -> worker.run(index));
+			thread.setUncaughtExceptionHandler((t, e) -> {
+				synchronized (failures) {
+					failures.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+			if (!concurrent) {
+				thread.join();
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	private float getDelta(int worker, int step) {
+		return (worker + 1) * 0.25f + step;
+	}
+
+	private float getTotalDelta() {
+		float total = 0;
+		for (int worker = 0; worker < WORKERS; worker++) {
+			for (int step = 0; step < STEPS; step++) {
+				total += getDelta(worker, step);
+			}
+		}
+		return total;
+	}
+
+	private AxonWeightsAdjustment createAdjustment(float delta) {
+		AxonWeightsAdjustment adjustment = Mockito.mock(AxonWeightsAdjustment.class);
+		adjustmentDeltas.put(adjustment, delta);
+		return adjustment;
+	}
+
+	/**
+	 * Creates axon weights whose adjustWeights adds the delta registered for the adjustment to every weight and 
+	 * bias, and whose dup() copies the weights into one of the duplicates.
+	 */
+	private AxonWeights createAxonWeights(float value) {
+		float[] weights = new float[WEIGHT_COUNT];
+		float[] biases = new float[BIAS_COUNT];
+		Arrays.fill(weights, value);
+		Arrays.fill(biases, value);
+		return createAxonWeights(weights, biases);
+	}
+
+	private AxonWeights createAxonWeights(float[] weights, float[] biases) {
+		Matrix weightsMatrix = matrixFactory.createMatrixFromRowsByRowsArray(1, weights.length, weights);
+		Matrix biasesMatrix = matrixFactory.createMatrixFromRowsByRowsArray(biases.length, 1, biases);
+		WeightsMatrix connectionWeights = Mockito.mock(WeightsMatrix.class);
+		Mockito.when(connectionWeights.getMatrix()).thenReturn(weightsMatrix);
+		BiasVector leftToRightBiases = Mockito.mock(BiasVector.class);
+		Mockito.when(leftToRightBiases.getVector()).thenReturn(biasesMatrix);
+
+		AxonWeights axonWeights = Mockito.mock(AxonWeights.class);
+		Mockito.when(axonWeights.getConnectionWeights()).thenReturn(connectionWeights);
+		Mockito.when(axonWeights.getLeftToRightBiases()).thenReturn(leftToRightBiases);
+		Mockito.when(axonWeights.dup()).thenAnswer(invocation -> {
+			dupCount.incrementAndGet();
+			AxonWeights duplicate = duplicates.remove();
+			System.arraycopy(weights, 0, getWeights(duplicate), 0, weights.length);
+			System.arraycopy(biases, 0, getBiases(duplicate), 0, biases.length);
+			return duplicate;
+		});
+		Mockito.doAnswer(invocation -> {
+			float delta = adjustmentDeltas.get(invocation.getArguments()[0]);
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] += delta;
+			}
+			for (int i = 0; i < biases.length; i++) {
+				biases[i] += delta;
+			}
+			return null;
+		}).when(axonWeights).adjustWeights(Mockito.any(AxonWeightsAdjustment.class),
+				Mockito.any(AxonWeightsAdjustmentDirection.class));
+		return axonWeights;
+	}
+
+	private float[] getWeights(AxonWeights axonWeights) {
+		return axonWeights.getConnectionWeights().getMatrix().getRowByRowArray();
+	}
+
+	private float[] getBiases(AxonWeights axonWeights) {
+		return axonWeights.getLeftToRightBiases().getVector().getRowByRowArray();
+	}
+
+	private void assertAllEqual(float expected, float[] actual) {
+		for (float value : actual) {
+			Assert.assertEquals(expected, value, 0.0001f);
+		}
+	}
+}
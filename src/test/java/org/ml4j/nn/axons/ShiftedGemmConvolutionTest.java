@@ -0,0 +1,177 @@
+package org.ml4j.nn.axons;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShiftedGemmConvolutionTest {
+
+	private static final int WIDTH = 9;
+	private static final int HEIGHT = 8;
+	private static final int EXAMPLES = 2;
+	private static final int INPUT_CHANNELS = 3;
+	private static final int OUTPUT_CHANNELS = 4;
+	private static final int KERNEL_SIZE = 3;
+	private static final int COLUMNS = WIDTH * HEIGHT * EXAMPLES;
+
+	@Test
+	public void testAccumulate() {
+		testAccumulate(1, 1);
+	}
+
+	@Test
+	public void testAccumulateDilated() {
+		testAccumulate(2, 2);
+		testAccumulate(3, 2);
+	}
+
+	@Test
+	public void testTileGeometry() {
+		PackedConvolutionKernel packedKernel = PackedConvolutionKernel.pack(
+				new float[OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE], OUTPUT_CHANNELS,
+				INPUT_CHANNELS, KERNEL_SIZE, KERNEL_SIZE, false, new LowMemoryConvolutionOptions());
+		int rowBytes = WIDTH * EXAMPLES * Float.BYTES;
+
+		// Three rows of each channel, plus two halo rows of each input channel
+		LowMemoryConvolutionOptions options = new LowMemoryConvolutionOptions()
+				.withTileCacheBytes((3 * (INPUT_CHANNELS + OUTPUT_CHANNELS) + 2 * INPUT_CHANNELS) * rowBytes);
+		Assert.assertEquals(3, ShiftedGemmConvolution.getTileRows(packedKernel, options, WIDTH, HEIGHT, EXAMPLES));
+		Assert.assertEquals(WIDTH,
+				ShiftedGemmConvolution.getTileWidth(packedKernel, options, WIDTH, HEIGHT, EXAMPLES));
+
+		// The halo alone exceeds the cache, so tiles are columns of a single row
+		options = new LowMemoryConvolutionOptions().withTileCacheBytes(INPUT_CHANNELS * rowBytes);
+		Assert.assertEquals(1, ShiftedGemmConvolution.getTileRows(packedKernel, options, WIDTH, HEIGHT, EXAMPLES));
+		int tileWidth = ShiftedGemmConvolution.getTileWidth(packedKernel, options, WIDTH, HEIGHT, EXAMPLES);
+		Assert.assertEquals(INPUT_CHANNELS * WIDTH / (INPUT_CHANNELS * 3 + OUTPUT_CHANNELS), tileWidth);
+		Assert.assertTrue(tileWidth > 1 && tileWidth < WIDTH);
+
+		// A single column is the smallest tile
+		options = new LowMemoryConvolutionOptions().withTileCacheBytes(1);
+		Assert.assertEquals(1, ShiftedGemmConvolution.getTileWidth(packedKernel, options, WIDTH, HEIGHT, EXAMPLES));
+	}
+
+	@Test
+	public void testTiledAccumulateMatchesUntiled() {
+		int rowBytes = WIDTH * EXAMPLES * Float.BYTES;
+		for (int dilation = 1; dilation <= 2; dilation++) {
+			// Row tiles of one and three rows, column tiles of several columns and of a single column
+			for (long tileCacheBytes : new long[] { 13 * rowBytes, (3 * 7 + 2 * dilation * 3) * rowBytes, rowBytes,
+					1 }) {
+				for (boolean parallelTiles : new boolean[] { false, true }) {
+					testTiledAccumulate(new LowMemoryConvolutionOptions().withDilation(dilation, dilation)
+							.withTiledExecution(true).withParallelTiles(parallelTiles)
+							.withTileCacheBytes(tileCacheBytes));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAccumulateTapGradientDilated() {
+		Random random = new Random(1);
+		float[] input = createRandomArray(random, INPUT_CHANNELS * COLUMNS);
+		float[] outputGradient = createRandomArray(random, OUTPUT_CHANNELS * COLUMNS);
+		float[] tapGradient = new float[OUTPUT_CHANNELS * INPUT_CHANNELS];
+		int dilationWidth = 3;
+		int dilationHeight = 2;
+		for (int h = 0; h < KERNEL_SIZE; h++) {
+			for (int w = 0; w < KERNEL_SIZE; w++) {
+				int shiftHeight = dilationHeight * (h - KERNEL_SIZE / 2);
+				int shiftWidth = dilationWidth * (w - KERNEL_SIZE / 2);
+				Arrays.fill(tapGradient, 0f);
+				ShiftedGemmConvolution.accumulateTapGradient(outputGradient, input, tapGradient, OUTPUT_CHANNELS,
+						INPUT_CHANNELS, shiftHeight, shiftWidth, WIDTH, HEIGHT, EXAMPLES);
+				for (int o = 0; o < OUTPUT_CHANNELS; o++) {
+					for (int i = 0; i < INPUT_CHANNELS; i++) {
+						float expected = 0;
+						for (int y = 0; y < HEIGHT; y++) {
+							for (int x = 0; x < WIDTH; x++) {
+								for (int e = 0; e < EXAMPLES; e++) {
+									int inputIndex = getIndex(i, y + shiftHeight, x + shiftWidth, e);
+									if (inputIndex >= 0) {
+										expected += outputGradient[getIndex(o, y, x, e)] * input[inputIndex];
+									}
+								}
+							}
+						}
+						Assert.assertEquals(expected, tapGradient[o * INPUT_CHANNELS + i], 0.0001f);
+					}
+				}
+			}
+		}
+	}
+
+	private void testAccumulate(int dilationWidth, int dilationHeight) {
+		Random random = new Random(1);
+		float[] kernel = createRandomArray(random, OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE);
+		float[] input = createRandomArray(random, INPUT_CHANNELS * COLUMNS);
+		PackedConvolutionKernel packedKernel = PackedConvolutionKernel.pack(kernel, OUTPUT_CHANNELS,
+				INPUT_CHANNELS, KERNEL_SIZE, KERNEL_SIZE, false, new LowMemoryConvolutionOptions());
+
+		float[] target = new float[OUTPUT_CHANNELS * COLUMNS];
+		float[] scratch = new float[ShiftedGemmConvolution.getScratchSize(packedKernel, WIDTH, HEIGHT, EXAMPLES,
+				dilationWidth * (KERNEL_SIZE / 2))];
+		float[] originalInput = input.clone();
+		ShiftedGemmConvolution.accumulate(packedKernel, dilationWidth, dilationHeight, input, target, WIDTH, HEIGHT,
+				EXAMPLES, 0, HEIGHT, scratch);
+
+		Assert.assertArrayEquals(originalInput, input, 0f);
+		for (int o = 0; o < OUTPUT_CHANNELS; o++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					for (int e = 0; e < EXAMPLES; e++) {
+						float expected = 0;
+						for (int i = 0; i < INPUT_CHANNELS; i++) {
+							for (int h = 0; h < KERNEL_SIZE; h++) {
+								for (int w = 0; w < KERNEL_SIZE; w++) {
+									int inputIndex = getIndex(i, y + dilationHeight * (h - KERNEL_SIZE / 2),
+											x + dilationWidth * (w - KERNEL_SIZE / 2), e);
+									if (inputIndex >= 0) {
+										expected += kernel[(o * INPUT_CHANNELS + i) * KERNEL_SIZE * KERNEL_SIZE
+												+ h * KERNEL_SIZE + w] * input[inputIndex];
+									}
+								}
+							}
+						}
+						Assert.assertEquals(expected, target[getIndex(o, y, x, e)], 0.0001f);
+					}
+				}
+			}
+		}
+	}
+
+	private void testTiledAccumulate(LowMemoryConvolutionOptions options) {
+		Random random = new Random(1);
+		float[] kernel = createRandomArray(random, OUTPUT_CHANNELS * INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE);
+		float[] input = createRandomArray(random, INPUT_CHANNELS * COLUMNS);
+		PackedConvolutionKernel packedKernel = PackedConvolutionKernel.pack(kernel, OUTPUT_CHANNELS,
+				INPUT_CHANNELS, KERNEL_SIZE, KERNEL_SIZE, false, options);
+		Assert.assertTrue(ShiftedGemmConvolution.getTileRows(packedKernel, options, WIDTH, HEIGHT, EXAMPLES) < HEIGHT);
+
+		float[] untiled = new float[OUTPUT_CHANNELS * COLUMNS];
+		ShiftedGemmConvolution.accumulate(packedKernel, options.dup().withTiledExecution(false), input, untiled,
+				WIDTH, HEIGHT, EXAMPLES);
+		float[] tiled = new float[OUTPUT_CHANNELS * COLUMNS];
+		ShiftedGemmConvolution.accumulate(packedKernel, options, input, tiled, WIDTH, HEIGHT, EXAMPLES);
+
+		Assert.assertArrayEquals(untiled, tiled, 0.0001f);
+	}
+
+	private int getIndex(int channel, int y, int x, int example) {
+		if (y < 0 || y >= HEIGHT || x < 0 || x >= WIDTH) {
+			return -1;
+		}
+		return channel * COLUMNS + (y * WIDTH + x) * EXAMPLES + example;
+	}
+
+	private float[] createRandomArray(Random random, int length) {
+		float[] array = new float[length];
+		for (int i = 0; i < length; i++) {
+			array[i] = random.nextFloat() - 0.5f;
+		}
+		return array;
+	}
+}
@@ -0,0 +1,94 @@
+package org.ml4j.nn.factories;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.ml4j.MatrixFactory;
+import org.ml4j.jblas.JBlasRowMajorMatrixFactoryOptimised;
+import org.ml4j.nn.axons.Axons3DConfig;
+import org.ml4j.nn.axons.ConvolutionalAxons;
+import org.ml4j.nn.axons.LowMemoryConvolutionOptions;
+import org.ml4j.nn.axons.LowMemorySamePaddingConvolutionalAxonWeightsImpl;
+import org.ml4j.nn.axons.LowMemorySamePaddingConvolutionalAxonsImpl;
+import org.ml4j.nn.axons.WeightsFormatImpl;
+import org.ml4j.nn.axons.WeightsMatrix;
+import org.ml4j.nn.axons.WeightsMatrixImpl;
+import org.ml4j.nn.axons.WeightsMatrixOrientation;
+import org.ml4j.nn.neurons.Neurons3D;
+import org.ml4j.nn.neurons.format.features.Dimension;
+
+public class LowMemoryOptimisedDefaultAxonsFactoryImplTest {
+
+	private static final int WIDTH = 7;
+	private static final int HEIGHT = 6;
+	private static final int INPUT_CHANNELS = 2;
+	private static final int OUTPUT_CHANNELS = 3;
+	private static final int KERNEL_SIZE = 3;
+
+	private MatrixFactory matrixFactory;
+	private LowMemoryOptimisedDefaultAxonsFactoryImpl axonsFactory;
+
+	@Before
+	public void setUp() {
+		matrixFactory = new JBlasRowMajorMatrixFactoryOptimised();
+		axonsFactory = new LowMemoryOptimisedDefaultAxonsFactoryImpl(matrixFactory,
+				new LowMemoryConvolutionOptions().withSparseKernels(true));
+	}
+
+	@Test
+	public void testDilatedSamePaddingConfigsAreLowMemory() {
+		ConvolutionalAxons axons = axonsFactory.createDilatedConvolutionalAxons(createConfig(3, 2), 3, 2,
+				createWeightsMatrix(), null);
+		LowMemoryConvolutionOptions options = getOptions(axons);
+		Assert.assertEquals(3, options.getDilationWidth());
+		Assert.assertEquals(2, options.getDilationHeight());
+		Assert.assertTrue(options.isSparseKernels());
+	}
+
+	@Test
+	public void testUndilatedConfigsAreCreatedAsConvolutionalAxons() {
+		ConvolutionalAxons axons = axonsFactory.createDilatedConvolutionalAxons(createConfig(1, 1), 1, 1,
+				createWeightsMatrix(), null);
+		Assert.assertFalse(getOptions(axons).isDilated());
+	}
+
+	@Test
+	public void testFactoryOptionsAreNotModified() {
+		axonsFactory.createDilatedConvolutionalAxons(createConfig(2, 2), 2, 2, createWeightsMatrix(), null);
+		Assert.assertFalse(getOptions(axonsFactory.createConvolutionalAxons(createConfig(1, 1),
+				createWeightsMatrix(), null)).isDilated());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDilatedConfigsWithoutSamePaddingAreRejected() {
+		axonsFactory.createDilatedConvolutionalAxons(createConfig(1, 1), 2, 2, createWeightsMatrix(), null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDilatedStridedConfigsAreRejected() {
+		axonsFactory.createDilatedConvolutionalAxons(createConfig(2, 2).withStrideWidth(2), 2, 2,
+				createWeightsMatrix(), null);
+	}
+
+	private LowMemoryConvolutionOptions getOptions(ConvolutionalAxons axons) {
+		Assert.assertTrue(axons instanceof LowMemorySamePaddingConvolutionalAxonsImpl);
+		return ((LowMemorySamePaddingConvolutionalAxonWeightsImpl) axons.getDetachedAxonWeights()).getOptions();
+	}
+
+	private Axons3DConfig createConfig(int paddingWidth, int paddingHeight) {
+		return new Axons3DConfig(new Neurons3D(WIDTH, HEIGHT, INPUT_CHANNELS, false),
+				new Neurons3D(WIDTH, HEIGHT, OUTPUT_CHANNELS, false)).withFilterWidth(KERNEL_SIZE)
+						.withFilterHeight(KERNEL_SIZE).withPaddingWidth(paddingWidth)
+						.withPaddingHeight(paddingHeight).withStrideWidth(1).withStrideHeight(1);
+	}
+
+	private WeightsMatrix createWeightsMatrix() {
+		return new WeightsMatrixImpl(
+				matrixFactory.createMatrix(OUTPUT_CHANNELS, INPUT_CHANNELS * KERNEL_SIZE * KERNEL_SIZE),
+				new WeightsFormatImpl(Arrays.asList(Dimension.OUTPUT_DEPTH),
+						Arrays.asList(Dimension.INPUT_DEPTH, Dimension.FILTER_HEIGHT, Dimension.FILTER_WIDTH),
+						WeightsMatrixOrientation.ROWS_SPAN_OUTPUT_DIMENSIONS));
+	}
+}